@@ -0,0 +1,367 @@
+package colorjunction;
+
+import colorjunction.conf.Configuracion;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+/**
+ * Archivo de tableros de una misma configuración, al que sólo se añade,
+ * para guardar millones de posiciones y volver a leerlas deprisa.
+ * <p>
+ * Tras una cabecera, cada tablero ocupa un registro de tamaño fijo con su
+ * codificación binaria (ver CodificacionTablero): el tablero i está en
+ * CABECERA + i * getTamanoRegistro(), y no hace falta otro índice.
+ * Si el archivo termina en un registro a medias (por ejemplo, tras una
+ * caída), se ignora y se sobrescribe al añadir.
+ * <pre>
+ *   4 bytes  "CJAT"
+ *   1 byte   versión (1)
+ *   2 bytes  ancho, 2 bytes alto, 1 byte número de colores
+ *   4 bytes  tamaño de cada registro
+ *   2 bytes  sin uso
+ * </pre>
+ * Se escribe por un FileChannel, a través de un buffer, y se lee por
+ * MappedByteBuffers de hasta 1 GB. get(i) da una vista de sólo lectura
+ * del registro, sin copiarlo, que se puede leer con
+ * CodificacionTablero.decodifica(). Varios hilos pueden leer a la vez,
+ * cada uno con sus vistas; añadir es para un solo hilo.
+ *
+ * @author Javier López Medina
+ * @version 1.0
+ */
+public class ArchivoTableros implements Closeable {
+    /**
+     * bytes de la cabecera del archivo
+     */
+    public static final int CABECERA = 16;
+    /**
+     * marca de los archivos de tableros
+     */
+    private static final byte[] MARCA = {'C', 'J', 'A', 'T'};
+    /**
+     * versión del formato
+     */
+    private static final int VERSION = 1;
+    /**
+     * bytes máximos de cada zona proyectada en memoria
+     */
+    private static final int MAX_ZONA = 1 << 30;
+    /**
+     * bytes del buffer de escritura
+     */
+    private static final int BUFFER = 1 << 16;
+
+    /**
+     * el fichero
+     */
+    private final FileChannel canal;
+    /**
+     * configuración de los tableros
+     */
+    private final Configuracion configuracion;
+    /**
+     * bytes de cada registro, y registros por zona proyectada
+     */
+    private final int tamanoRegistro;
+    private final int registrosPorZona;
+    /**
+     * tableros en el archivo, y de ellos ya escritos en el fichero
+     */
+    private final AtomicLong nTableros = new AtomicLong();
+    private volatile long nEscritos;
+    /**
+     * tableros codificados que esperan a escribirse; NULL si sólo se lee
+     */
+    private final ByteBuffer escritura;
+    /**
+     * zonas proyectadas en memoria; una zona NULL o corta se proyecta al pedirla
+     */
+    private volatile MappedByteBuffer[] zonas = new MappedByteBuffer[0];
+
+    /**
+     * Constructor.
+     *
+     * @param canal          fichero, ya con la cabecera.
+     * @param configuracion  configuración de los tableros.
+     * @param nTableros      tableros completos en el fichero.
+     * @param escribible     TRUE si se pueden añadir tableros.
+     */
+    private ArchivoTableros(FileChannel canal, Configuracion configuracion, long nTableros, boolean escribible) {
+        this.canal = canal;
+        this.configuracion = configuracion;
+        this.tamanoRegistro = CodificacionTablero.tamano(configuracion.getAncho(), configuracion.getAlto(),
+                configuracion.getNColores());
+        this.registrosPorZona = Math.max(1, MAX_ZONA / tamanoRegistro);
+        this.nTableros.set(nTableros);
+        this.nEscritos = nTableros;
+        this.escritura = escribible ? ByteBuffer.allocate(Math.max(BUFFER, tamanoRegistro)) : null;
+    }
+
+    /**
+     * Crea un archivo vacío. Si el fichero existe, se vacía.
+     *
+     * @param fichero       fichero.
+     * @param configuracion configuración de los tableros que se guardarán.
+     * @return el archivo, en el que se pueden añadir tableros.
+     * @throws IOException si no se puede crear.
+     */
+    public static ArchivoTableros crea(File fichero, Configuracion configuracion) throws IOException {
+        FileChannel canal = FileChannel.open(fichero.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer cabecera = ByteBuffer.allocate(CABECERA);
+        cabecera.put(MARCA);
+        cabecera.put((byte) VERSION);
+        cabecera.putShort((short) configuracion.getAncho());
+        cabecera.putShort((short) configuracion.getAlto());
+        cabecera.put((byte) configuracion.getNColores());
+        cabecera.putInt(CodificacionTablero.tamano(configuracion.getAncho(), configuracion.getAlto(),
+                configuracion.getNColores()));
+        cabecera.clear();
+        while (cabecera.hasRemaining())
+            canal.write(cabecera, cabecera.position());
+        return new ArchivoTableros(canal, configuracion, 0, true);
+    }
+
+    /**
+     * Abre un archivo que ya existe.
+     *
+     * @param fichero    fichero.
+     * @param escribible TRUE para poder añadir tableros.
+     * @return el archivo.
+     * @throws IOException si no se puede abrir o no es un archivo de tableros.
+     */
+    public static ArchivoTableros abre(File fichero, boolean escribible) throws IOException {
+        FileChannel canal = escribible
+                ? FileChannel.open(fichero.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(fichero.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer cabecera = ByteBuffer.allocate(CABECERA);
+            while (cabecera.hasRemaining())
+                if (canal.read(cabecera, cabecera.position()) < 0)
+                    throw new IOException(fichero + ": no es un archivo de tableros");
+            cabecera.flip();
+            byte[] marca = new byte[MARCA.length];
+            cabecera.get(marca);
+            if (!Arrays.equals(marca, MARCA) || cabecera.get() != VERSION)
+                throw new IOException(fichero + ": no es un archivo de tableros");
+            int ancho = cabecera.getShort() & 0xFFFF;
+            int alto = cabecera.getShort() & 0xFFFF;
+            int nColores = cabecera.get() & 0xFF;
+            Configuracion configuracion = new Configuracion(ancho, alto, nColores);
+            int tamano = cabecera.getInt();
+            if (tamano != CodificacionTablero.tamano(ancho, alto, nColores))
+                throw new IOException(fichero + ": registros de " + tamano + " bytes");
+            return new ArchivoTableros(canal, configuracion, (canal.size() - CABECERA) / tamano, escribible);
+        } catch (IOException | RuntimeException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return configuración de los tableros del archivo.
+     */
+    public Configuracion getConfiguracion() {
+        return configuracion;
+    }
+
+    /**
+     * @return bytes que ocupa cada tablero.
+     */
+    public int getTamanoRegistro() {
+        return tamanoRegistro;
+    }
+
+    /**
+     * @return número de tableros en el archivo.
+     */
+    public long size() {
+        return nTableros.get();
+    }
+
+    /**
+     * Añade un tablero al final. Se escribe en el fichero cuando se llena
+     * el buffer, con vuelca() o al cerrar.
+     *
+     * @param tablero tablero de la configuración del archivo.
+     * @return posición del tablero en el archivo.
+     * @throws IOException si no se puede escribir.
+     * @throws IllegalArgumentException si el tablero es de otra configuración.
+     */
+    public long anade(Tablero tablero) throws IOException {
+        if (escritura == null)
+            throw new IOException("archivo de sólo lectura");
+        if (tablero.getAncho() != configuracion.getAncho() || tablero.getAlto() != configuracion.getAlto()
+                || tablero.getNColores() != configuracion.getNColores())
+            throw new IllegalArgumentException("anade: " + tablero.getAncho() + "x" + tablero.getAlto()
+                    + "x" + tablero.getNColores());
+        synchronized (escritura) {
+            if (escritura.remaining() < tamanoRegistro)
+                vuelca();
+            CodificacionTablero.codifica(tablero, escritura);
+            return nTableros.getAndIncrement();
+        }
+    }
+
+    /**
+     * Escribe en el fichero los tableros que esperan en el buffer.
+     *
+     * @throws IOException si no se puede escribir.
+     */
+    public void vuelca() throws IOException {
+        if (escritura == null)
+            return;
+        synchronized (escritura) {
+            escritura.flip();
+            long posicion = CABECERA + nEscritos * tamanoRegistro;
+            while (escritura.hasRemaining())
+                posicion += canal.write(escritura, posicion);
+            escritura.clear();
+            nEscritos = nTableros.get();
+        }
+    }
+
+    /**
+     * Vista de sólo lectura de un tablero del archivo, sin copiarlo:
+     * de la posición 0 al límite está su codificación binaria.
+     * Cada llamada da una vista nueva, que se puede leer desde otro hilo.
+     *
+     * @param i posición del tablero, de 0 a size() - 1.
+     * @return vista del registro.
+     * @throws IOException si no se puede leer.
+     * @throws IndexOutOfBoundsException si no hay tablero en esa posición.
+     */
+    public ByteBuffer get(long i) throws IOException {
+        if (i < 0 || i >= nTableros.get())
+            throw new IndexOutOfBoundsException("get: " + i + " de " + nTableros.get());
+        int z = (int) (i / registrosPorZona);
+        int desde = (int) (i % registrosPorZona) * tamanoRegistro;
+        ByteBuffer vista = zona(z, desde + tamanoRegistro).duplicate();
+        vista.limit(desde + tamanoRegistro);
+        vista.position(desde);
+        return vista.slice();
+    }
+
+    /**
+     * Lee un tablero del archivo.
+     *
+     * @param i posición del tablero, de 0 a size() - 1.
+     * @return tablero nuevo, con pasos y puntos a 0.
+     * @throws IOException si no se puede leer.
+     */
+    public Tablero getTablero(long i) throws IOException {
+        return CodificacionTablero.decodifica(get(i));
+    }
+
+    /**
+     * Lee un tablero del archivo en uno que ya existe, de la misma configuración.
+     *
+     * @param i       posición del tablero, de 0 a size() - 1.
+     * @param destino tablero en el que se ponen las fichas.
+     * @throws IOException si no se puede leer.
+     */
+    public void getTablero(long i, Tablero destino) throws IOException {
+        CodificacionTablero.decodifica(get(i), destino);
+    }
+
+    /**
+     * Da una zona proyectada en memoria que llegue al menos hasta un byte dado;
+     * si no la hay, vuelca lo pendiente y la proyecta.
+     *
+     * @param z     número de zona.
+     * @param bytes bytes de la zona que hacen falta.
+     * @return la zona.
+     * @throws IOException si no se puede proyectar.
+     */
+    private MappedByteBuffer zona(int z, int bytes) throws IOException {
+        MappedByteBuffer[] actuales = zonas;
+        if (z < actuales.length && actuales[z] != null && actuales[z].capacity() >= bytes)
+            return actuales[z];
+        synchronized (this) {
+            actuales = zonas;
+            if (z < actuales.length && actuales[z] != null && actuales[z].capacity() >= bytes)
+                return actuales[z];
+            long inicio = CABECERA + (long) z * registrosPorZona * tamanoRegistro;
+            if (inicio + bytes > CABECERA + nEscritos * tamanoRegistro)
+                vuelca();
+            long enZona = Math.min(registrosPorZona, nEscritos - (long) z * registrosPorZona);
+            MappedByteBuffer zona = canal.map(FileChannel.MapMode.READ_ONLY, inicio, enZona * tamanoRegistro);
+            MappedByteBuffer[] nuevas = Arrays.copyOf(actuales, Math.max(actuales.length, z + 1));
+            nuevas[z] = zona;
+            zonas = nuevas;
+            return zona;
+        }
+    }
+
+    /**
+     * Vuelca lo pendiente y cierra el fichero. Las vistas ya dadas dejan de valer.
+     *
+     * @throws IOException si no se puede escribir.
+     */
+    public void close() throws IOException {
+        try {
+            vuelca();
+        } finally {
+            canal.close();
+        }
+    }
+
+    /**
+     * Guarda los tableros de una serie de semillas y luego los lee todos,
+     * repartidos entre los procesadores, y da los tableros por segundo.
+     *
+     * @param args fichero, ancho, alto, colores y número de tableros;
+     *             por omisión, tableros.cjat 10 10 5 1000000.
+     * @throws IOException si no se puede escribir o leer el fichero.
+     */
+    public static void main(String[] args) throws IOException {
+        File fichero = new File(args.length > 0 ? args[0] : "tableros.cjat");
+        int ancho = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int alto = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int nColores = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        final long n = args.length > 4 ? Long.parseLong(args[4]) : 1000000;
+        final Configuracion configuracion = new Configuracion(ancho, alto, nColores);
+        long t0 = System.nanoTime();
+        try (ArchivoTableros archivo = crea(fichero, configuracion)) {
+            Tablero tablero = new Tablero(0, configuracion);
+            tablero.setHistorial(false);
+            for (long s = 0; s < n; s++) {
+                tablero.reparte(s);
+                archivo.anade(tablero);
+            }
+        }
+        long t1 = System.nanoTime();
+        System.out.println("escritos " + n + " tableros, " + n * 1000000000L / Math.max(1, t1 - t0)
+                + " tableros/s, " + fichero.length() + " bytes");
+        try (final ArchivoTableros archivo = abre(fichero, false)) {
+            final ThreadLocal<Tablero> tableros = new ThreadLocal<Tablero>() {
+                protected Tablero initialValue() {
+                    Tablero tablero = new Tablero(0, configuracion);
+                    tablero.setHistorial(false);
+                    return tablero;
+                }
+            };
+            long fichas = LongStream.range(0, archivo.size()).parallel().map(i -> {
+                Tablero tablero = tableros.get();
+                try {
+                    archivo.getTablero(i, tablero);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return tablero.getNFichas();
+            }).sum();
+            long t2 = System.nanoTime();
+            System.out.println("leidos " + archivo.size() + " tableros (" + fichas + " fichas), "
+                    + archivo.size() * 1000000000L / Math.max(1, t2 - t1) + " tableros/s");
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package colorjunction.solver;
+
+import colorjunction.Tablero;
+import colorjunction.conf.Configuracion;
+
+import java.util.Arrays;
+
+/**
+ * Programa de consola que hace jugar a un jugador automático muchas
+ * partidas seguidas, sin ventanas, y da estadísticas de cómo juega y de
+ * cuántas partidas por segundo juega.
+ * <p>
+ * Para cada configuración se juegan las partidas de semillas consecutivas,
+ * en un solo tablero que se reparte de nuevo con Tablero.reparte() en cada
+ * partida y sin historial, para medir al jugador y no al recolector de
+ * basura. Como no abre ventanas, funciona en máquinas sin pantalla
+ * (java.awt.headless).
+ * <pre>
+ * Autojuego jugador partidas [-semilla s] configuracion...
+ *   jugador        azar, voraz, haz[:ancho[:ms]], nmcs[:nivel[:ms]] o exacta
+ *   configuracion  ancho x alto x colores, por ejemplo 10x10x5
+ * </pre>
+ *
+ * @author Javier López Medina
+ * @version 1.0
+ */
+public class Autojuego {
+    /**
+     * jugador que juega las partidas
+     */
+    private final Jugador jugador;
+    /**
+     * puntos, fichas eliminadas y jugadas de cada partida de la última serie
+     */
+    private int[] puntos;
+    private int[] eliminadas;
+    private int[] pasos;
+    /**
+     * partidas despejadas del todo en la última serie
+     */
+    private int despejadas;
+    /**
+     * duración de la última serie, en nanosegundos
+     */
+    private long nanosegundos;
+
+    /**
+     * Constructor.
+     *
+     * @param jugador jugador que juega las partidas.
+     */
+    public Autojuego(Jugador jugador) {
+        this.jugador = jugador;
+    }
+
+    /**
+     * Juega una serie de partidas.
+     *
+     * @param configuracion configuración de los tableros.
+     * @param semilla       semilla de la primera partida; las demás, las siguientes.
+     * @param partidas      número de partidas.
+     */
+    public void juega(Configuracion configuracion, long semilla, int partidas) {
+        puntos = new int[partidas];
+        eliminadas = new int[partidas];
+        pasos = new int[partidas];
+        despejadas = 0;
+        Tablero tablero = new Tablero(semilla, configuracion);
+        tablero.setHistorial(false);
+        int alto = tablero.getAlto();
+        int fichas = tablero.getAncho() * alto;
+        long inicio = System.nanoTime();
+        for (int k = 0; k < partidas; k++) {
+            tablero.reparte(semilla + k);
+            jugador.empieza(tablero);
+            while (tablero.getNGrupos() > 0) {
+                int celda = jugador.jugada(tablero);
+                if (celda < 0)
+                    break;
+                int antes = tablero.getPasos();
+                tablero.clic(celda / alto, celda % alto);
+                if (tablero.getPasos() == antes)
+                    throw new IllegalStateException("jugada sin efecto: " + celda + " en la semilla " + (semilla + k));
+            }
+            puntos[k] = tablero.getPuntos();
+            eliminadas[k] = fichas - tablero.getNFichas();
+            pasos[k] = tablero.getPasos();
+            if (eliminadas[k] == fichas)
+                despejadas++;
+        }
+        nanosegundos = Math.max(1, System.nanoTime() - inicio);
+    }
+
+    /**
+     * @return puntos de cada partida de la última serie.
+     */
+    public int[] getPuntos() {
+        return puntos;
+    }
+
+    /**
+     * @return fichas eliminadas en cada partida de la última serie.
+     */
+    public int[] getEliminadas() {
+        return eliminadas;
+    }
+
+    /**
+     * @return jugadas de cada partida de la última serie.
+     */
+    public int[] getPasos() {
+        return pasos;
+    }
+
+    /**
+     * @return partidas de la última serie que despejaron el tablero.
+     */
+    public int getDespejadas() {
+        return despejadas;
+    }
+
+    /**
+     * @return partidas por segundo en la última serie.
+     */
+    public double getPartidasPorSegundo() {
+        return puntos.length * 1e9 / nanosegundos;
+    }
+
+    /**
+     * Media de unos valores.
+     *
+     * @param valores valores.
+     * @return media; 0 si no hay valores.
+     */
+    static double media(int[] valores) {
+        long suma = 0;
+        for (int v : valores)
+            suma += v;
+        return valores.length == 0 ? 0 : (double) suma / valores.length;
+    }
+
+    /**
+     * Percentil de unos valores, por el método del rango más cercano.
+     *
+     * @param ordenados  valores, de menor a mayor.
+     * @param percentil  entre 0 y 100.
+     * @return el menor valor que no es superado por el percentil% de los valores.
+     */
+    static int percentil(int[] ordenados, double percentil) {
+        if (ordenados.length == 0)
+            return 0;
+        int rango = (int) Math.ceil(percentil / 100 * ordenados.length);
+        return ordenados[Math.max(0, Math.min(ordenados.length - 1, rango - 1))];
+    }
+
+    /**
+     * Jugador al azar: cualquier grupo, con la misma probabilidad.
+     */
+    public static class AlAzar implements Jugador {
+        /**
+         * generador, que se reinicia con la semilla de cada partida
+         */
+        private final Azar azar = new Azar(0);
+        /**
+         * semilla que se suma a la de cada partida
+         */
+        private final long semilla;
+
+        /**
+         * Constructor.
+         *
+         * @param semilla con la misma semilla, se juegan las mismas partidas.
+         */
+        public AlAzar(long semilla) {
+            this.semilla = semilla;
+        }
+
+        public void empieza(Tablero tablero) {
+            azar.reinicia(semilla + tablero.getHash());
+        }
+
+        public int jugada(Tablero tablero) {
+            return tablero.getRepresentanteGrupo(1 + azar.nextInt(tablero.getNGrupos()));
+        }
+    }
+
+    /**
+     * Jugador voraz: siempre el grupo más grande.
+     */
+    public static class Voraz implements Jugador {
+        public void empieza(Tablero tablero) {
+        }
+
+        public int jugada(Tablero tablero) {
+            return tablero.getRepresentanteGrupo(tablero.getGrupoMayor());
+        }
+    }
+
+    /**
+     * Jugador que busca al empezar la partida la serie de jugadas con un
+     * Buscador, y luego la sigue.
+     */
+    public static class ConBuscador implements Jugador {
+        /**
+         * buscador de la serie de jugadas
+         */
+        private final Buscador buscador;
+        /**
+         * serie de la partida en curso, y jugadas hechas
+         */
+        private Solucion solucion;
+        private int hechas;
+
+        /**
+         * Constructor.
+         *
+         * @param buscador buscador de la serie de jugadas.
+         */
+        public ConBuscador(Buscador buscador) {
+            this.buscador = buscador;
+        }
+
+        public void empieza(Tablero tablero) {
+            solucion = buscador.resuelve(tablero);
+            hechas = 0;
+        }
+
+        public int jugada(Tablero tablero) {
+            return hechas < solucion.getNJugadas() ? solucion.getCelda(hechas++) : -1;
+        }
+    }
+
+    /**
+     * Crea un jugador a partir de su nombre.
+     *
+     * @param nombre  azar, voraz, haz[:ancho[:ms]], nmcs[:nivel[:ms]] o exacta.
+     * @param semilla semilla de los jugadores que juegan al azar.
+     * @return el jugador.
+     */
+    public static Jugador jugador(String nombre, long semilla) {
+        String[] partes = nombre.split(":");
+        switch (partes[0]) {
+            case "azar":
+                return new AlAzar(semilla);
+            case "voraz":
+                return new Voraz();
+            case "haz":
+                return new ConBuscador(new BusquedaHaz(partes.length > 1 ? Integer.parseInt(partes[1]) : 100,
+                        partes.length > 2 ? Long.parseLong(partes[2]) : 1000));
+            case "nmcs":
+                return new ConBuscador(new MonteCarloAnidado(partes.length > 1 ? Integer.parseInt(partes[1]) : 1,
+                        semilla, partes.length > 2 ? Long.parseLong(partes[2]) : 1000));
+            case "exacta":
+                return new ConBuscador(new BusquedaExacta());
+            default:
+                throw new IllegalArgumentException("jugador: " + nombre);
+        }
+    }
+
+    /**
+     * Programa principal.
+     *
+     * @param args jugador, partidas, opciones y configuraciones (ver la clase).
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length < 3) {
+            System.err.println("Autojuego jugador partidas [-semilla s] configuracion...");
+            System.exit(1);
+        }
+        int partidas = Integer.parseInt(args[1]);
+        long semilla = 0;
+        int i = 2;
+        if (args[i].equals("-semilla")) {
+            semilla = Long.parseLong(args[i + 1]);
+            i += 2;
+        }
+        Autojuego autojuego = new Autojuego(jugador(args[0], semilla));
+        System.out.println("configuracion\tpuntos medios\tp10\tp50\tp90\tp99\tfichas eliminadas"
+                + "\tjugadas\tdespejadas\tpartidas/s");
+        for (; i < args.length; i++) {
+            String[] medidas = args[i].split("x");
+            if (medidas.length != 3)
+                throw new IllegalArgumentException("configuracion: " + args[i]);
+            Configuracion configuracion = new Configuracion(Integer.parseInt(medidas[0]),
+                    Integer.parseInt(medidas[1]), Integer.parseInt(medidas[2]));
+            autojuego.juega(configuracion, semilla, partidas);
+            int[] ordenados = autojuego.getPuntos().clone();
+            Arrays.sort(ordenados);
+            System.out.println(String.format("%s\t%.1f\t%d\t%d\t%d\t%d\t%.1f\t%.1f\t%d\t%.1f", args[i],
+                    media(ordenados), percentil(ordenados, 10), percentil(ordenados, 50),
+                    percentil(ordenados, 90), percentil(ordenados, 99), media(autojuego.getEliminadas()),
+                    media(autojuego.getPasos()), autojuego.getDespejadas(), autojuego.getPartidasPorSegundo()));
+        }
+    }
+}
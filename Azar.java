@@ -0,0 +1,56 @@
+package colorjunction.solver;
+
+/**
+ * Generador de números pseudoaleatorios rápido, con semilla: SplitMix64.
+ * Sólo guarda un long y no reserva memoria al pedir números, al contrario
+ * que java.util.Random no sincroniza nada. No sirve para criptografía.
+ * Cada objeto es para un solo hilo.
+ *
+ * @author Javier López Medina
+ * @version 1.0
+ */
+public class Azar {
+    /**
+     * estado del generador
+     */
+    private long estado;
+
+    /**
+     * Constructor.
+     *
+     * @param semilla fija la serie de números: siempre la misma para la misma semilla.
+     */
+    public Azar(long semilla) {
+        estado = semilla;
+    }
+
+    /**
+     * Vuelve a empezar la serie, como si se acabara de crear.
+     *
+     * @param semilla fija la serie de números.
+     */
+    public void reinicia(long semilla) {
+        estado = semilla;
+    }
+
+    /**
+     * @return siguiente número de 64 bits.
+     */
+    public long nextLong() {
+        long z = (estado += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Número entre 0 y n - 1, por multiplicación en vez de división.
+     * El sesgo, del orden de n / 2^32, no importa para simular partidas.
+     *
+     * @param n número de valores posibles, mayor que 0.
+     * @return número entre 0 y n - 1.
+     */
+    public int nextInt(int n) {
+        return (int) (((nextLong() >>> 32) * n) >>> 32);
+    }
+}
@@ -0,0 +1,20 @@
+package colorjunction.solver;
+
+import colorjunction.Tablero;
+
+/**
+ * Jugador automático que, dado un tablero, busca de una vez la serie de
+ * jugadas con más puntos que puede.
+ *
+ * @author Javier López Medina
+ * @version 1.0
+ */
+public interface Buscador {
+    /**
+     * Busca la mejor serie de jugadas desde un tablero. El tablero no cambia.
+     *
+     * @param tablero posición de partida.
+     * @return mejor serie de jugadas encontrada, y los puntos que suma.
+     */
+    Solucion resuelve(Tablero tablero);
+}
@@ -0,0 +1,248 @@
+package colorjunction.solver;
+
+import colorjunction.Tablero;
+import colorjunction.conf.Configuracion;
+import log.Logger;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Jugador automático exacto, para tableros pequeños (hasta unos 6x6):
+ * da la serie de jugadas con más puntos posible, y sirve de referencia
+ * para medir a los demás jugadores.
+ * <p>
+ * Es una búsqueda en profundidad con ramificación y poda. Empieza con la
+ * solución de una búsqueda en haz corta, y poda las posiciones que, ni
+ * sumando la cota de BusquedaHaz.cota(), superan la mejor solución
+ * conocida. Las jugadas se prueban de mayor a menor grupo.
+ * Cada posición se memoriza por su firma: si se completó su búsqueda, con
+ * los puntos exactos que se pueden sacar de ella y la mejor jugada; si
+ * se podó algo, con una cota de esos puntos.
+ *
+ * @author Javier López Medina
+ * @version 1.0
+ */
+public class BusquedaExacta implements Buscador {
+    /**
+     * posiciones memorizadas, por firma
+     */
+    private Map<String, Entrada> memoria;
+    /**
+     * mejores puntos conseguidos por una serie completa, y la serie
+     */
+    private int mejor;
+    private int[] mejorSerie;
+    private int nMejorSerie;
+    /**
+     * serie de jugadas desde el tablero de partida hasta la posición en curso
+     */
+    private int[] camino;
+    /**
+     * fichas de cada color, para la cota
+     */
+    private int[] cuenta;
+    /**
+     * posiciones examinadas en la última búsqueda
+     */
+    private long posiciones;
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger.getLogger("colorjunction.solver.BusquedaExacta");
+
+    /**
+     * Busca la serie de jugadas con más puntos desde un tablero. El tablero no cambia.
+     *
+     * @param tablero posición de partida.
+     * @return la mejor serie de jugadas, y los puntos que suma.
+     */
+    public Solucion resuelve(Tablero tablero) {
+        long inicio = System.nanoTime();
+        int alto = tablero.getAlto();
+        int casillas = tablero.getAncho() * alto;
+        memoria = new HashMap<String, Entrada>();
+        camino = new int[casillas / 2 + 1];
+        mejorSerie = new int[casillas / 2 + 1];
+        cuenta = new int[tablero.getNColores()];
+        posiciones = 0;
+        Tablero raiz = new Tablero(tablero);
+        raiz.setHistorial(false);
+        Solucion inicial = new BusquedaHaz(16, 1000).resuelve(raiz);
+        mejor = inicial.getPuntos();
+        nMejorSerie = inicial.getNJugadas();
+        for (int k = 0; k < nMejorSerie; k++)
+            mejorSerie[k] = inicial.getCelda(k);
+        busca(raiz, 0, 0);
+        Solucion solucion = new Solucion(Arrays.copyOf(mejorSerie, nMejorSerie), alto, mejor);
+        LOGGER.fine("BusquedaExacta: " + mejor + " puntos (haz: " + inicial.getPuntos() + "), "
+                + posiciones + " posiciones, " + memoria.size() + " memorizadas en "
+                + (System.nanoTime() - inicio) / 1000000 + " ms");
+        memoria = null;
+        return solucion;
+    }
+
+    /**
+     * @return número de posiciones examinadas en la última búsqueda.
+     */
+    public long getPosiciones() {
+        return posiciones;
+    }
+
+    /**
+     * Busca desde una posición.
+     *
+     * @param tablero  posición.
+     * @param ganados  puntos ganados desde el tablero de partida hasta esta posición.
+     * @param longitud número de jugadas desde el tablero de partida hasta esta posición.
+     * @return puntos que se pueden sacar desde la posición, exactos o una cota (ver Entrada).
+     */
+    private Entrada busca(Tablero tablero, int ganados, int longitud) {
+        posiciones++;
+        String firma = tablero.getFirma();
+        Entrada entrada = memoria.get(firma);
+        if (entrada != null) {
+            if (entrada.exacta) {
+                if (ganados + entrada.puntos > mejor)
+                    mejora(tablero, ganados + entrada.puntos, longitud);
+                return entrada;
+            }
+            if (ganados + entrada.puntos <= mejor)
+                return entrada;
+        }
+        long cota = BusquedaHaz.cota(tablero, cuenta);
+        if (ganados + cota <= mejor)
+            return guarda(firma, (int) Math.min(cota, Integer.MAX_VALUE), false, -1);
+        int alto = tablero.getAlto();
+        int[] jugadas = new int[2 * tablero.getNGrupos()];
+        int n = tablero.getJugadas(jugadas);
+        if (n == 0) {
+            if (ganados > mejor)
+                mejora(tablero, ganados, longitud);
+            return guarda(firma, 0, true, -1);
+        }
+        ordena(jugadas, n);
+        int puntos = 0;
+        int jugada = -1;
+        int cotaPodadas = 0;
+        boolean exacta = true;
+        for (int k = 0; k < n; k++) {
+            int celda = jugadas[2 * k];
+            int valor = jugadas[2 * k + 1];
+            camino[longitud] = celda;
+            Entrada hijo = busca(tablero.copiaYClic(celda / alto, celda % alto), ganados + valor, longitud + 1);
+            if (hijo.exacta) {
+                if (valor + hijo.puntos > puntos) {
+                    puntos = valor + hijo.puntos;
+                    jugada = celda;
+                }
+            } else {
+                exacta = false;
+                cotaPodadas = Math.max(cotaPodadas, valor + hijo.puntos);
+            }
+        }
+        if (exacta)
+            return guarda(firma, puntos, true, jugada);
+        return guarda(firma, Math.max(puntos, cotaPodadas), false, -1);
+    }
+
+    /**
+     * Apunta una serie mejor que la conocida: el camino hasta la posición
+     * y, desde ella, las mejores jugadas memorizadas.
+     *
+     * @param tablero  posición.
+     * @param total    puntos de la serie.
+     * @param longitud número de jugadas desde el tablero de partida hasta la posición.
+     */
+    private void mejora(Tablero tablero, int total, int longitud) {
+        mejor = total;
+        System.arraycopy(camino, 0, mejorSerie, 0, longitud);
+        nMejorSerie = longitud;
+        int alto = tablero.getAlto();
+        Entrada entrada = memoria.get(tablero.getFirma());
+        while (entrada != null && entrada.jugada >= 0) {
+            mejorSerie[nMejorSerie++] = entrada.jugada;
+            tablero = tablero.copiaYClic(entrada.jugada / alto, entrada.jugada % alto);
+            entrada = memoria.get(tablero.getFirma());
+        }
+    }
+
+    /**
+     * Memoriza una posición.
+     *
+     * @return la entrada memorizada.
+     */
+    private Entrada guarda(String firma, int puntos, boolean exacta, int jugada) {
+        Entrada entrada = new Entrada(puntos, exacta, jugada);
+        memoria.put(firma, entrada);
+        return entrada;
+    }
+
+    /**
+     * Ordena las jugadas de más a menos puntos, por inserción: son pocas.
+     *
+     * @param jugadas pares (casilla, puntos), como Tablero.getJugadas().
+     * @param n       número de jugadas.
+     */
+    private static void ordena(int[] jugadas, int n) {
+        for (int i = 1; i < n; i++) {
+            int celda = jugadas[2 * i];
+            int valor = jugadas[2 * i + 1];
+            int j = i - 1;
+            for (; j >= 0 && jugadas[2 * j + 1] < valor; j--) {
+                jugadas[2 * j + 2] = jugadas[2 * j];
+                jugadas[2 * j + 3] = jugadas[2 * j + 1];
+            }
+            jugadas[2 * j + 2] = celda;
+            jugadas[2 * j + 3] = valor;
+        }
+    }
+
+    /**
+     * Lo que se sabe de una posición.
+     */
+    private static class Entrada {
+        /**
+         * si exacta, los puntos que se pueden sacar desde la posición;
+         * si no, una cota superior de esos puntos
+         */
+        final int puntos;
+        /**
+         * la búsqueda desde la posición se completó sin podar nada
+         */
+        final boolean exacta;
+        /**
+         * si exacta, la mejor jugada; -1 si no hay o no se sabe
+         */
+        final int jugada;
+
+        Entrada(int puntos, boolean exacta, int jugada) {
+            this.puntos = puntos;
+            this.exacta = exacta;
+            this.jugada = jugada;
+        }
+    }
+
+    /**
+     * Resuelve una serie de tableros y da el tiempo de cada uno.
+     *
+     * @param args ancho, alto, colores, primera semilla y número de tableros;
+     *             por omisión, 6 6 4 0 10.
+     */
+    public static void main(String[] args) {
+        int ancho = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+        int alto = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        int nColores = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        long semilla = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        int n = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+        Configuracion configuracion = new Configuracion(ancho, alto, nColores);
+        BusquedaExacta busqueda = new BusquedaExacta();
+        for (long s = semilla; s < semilla + n; s++) {
+            long t0 = System.nanoTime();
+            Solucion solucion = busqueda.resuelve(new Tablero(s, configuracion));
+            System.out.println(s + "\t" + solucion.getPuntos() + "\t" + busqueda.getPosiciones() + " posiciones\t"
+                    + (System.nanoTime() - t0) / 1000000 + " ms");
+        }
+    }
+}
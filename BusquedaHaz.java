@@ -0,0 +1,276 @@
+package colorjunction.solver;
+
+import colorjunction.Tablero;
+import log.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Jugador automático por búsqueda en haz.
+ * Avanza jugada a jugada, quedándose en cada paso con las anchoHaz mejores
+ * posiciones según una valoración: los puntos ya conseguidos más una cota
+ * de los que quedan por conseguir (ver cota()). Cada posición hija se crea con
+ * Tablero.copiaYClic(), que sólo copia las columnas que cambian, y sus
+ * fichas de cada color se sacan de las del padre, sin recorrer el tablero.
+ * Una tabla de transposición descarta las posiciones a las que ya se había
+ * llegado con tantos puntos o más, por otro orden de jugadas.
+ * <p>
+ * La búsqueda termina cuando no quedan jugadas, se agota el tiempo o
+ * se interrumpe el hilo, y devuelve la mejor serie de jugadas encontrada.
+ * El tiempo y la interrupción se miran tras cada posición hija: en tableros
+ * grandes, un nodo del haz puede tener miles.
+ * <p>
+ * BusquedaParalela reparte entre varios hilos búsquedas como esta, cada
+ * una desde una primera jugada distinta.
+ *
+ * @author Javier López Medina
+ * @version 1.0
+ */
+public class BusquedaHaz implements Buscador {
+    /**
+     * número de posiciones que se conservan en cada paso
+     */
+    private final int anchoHaz;
+    /**
+     * tiempo máximo de búsqueda, en nanosegundos
+     */
+    private final long presupuesto;
+    /**
+     * posiciones examinadas en la última búsqueda
+     */
+    private long posiciones;
+    /**
+     * la última búsqueda se abandonó (ver resuelve(Tablero, AtomicInteger))
+     */
+    private boolean abandonada;
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger.getLogger("colorjunction.solver.BusquedaHaz");
+
+    /**
+     * Constructor.
+     *
+     * @param anchoHaz    número de posiciones que se conservan en cada paso.
+     * @param presupuesto tiempo máximo de búsqueda, en milisegundos.
+     */
+    public BusquedaHaz(int anchoHaz, long presupuesto) {
+        if (anchoHaz < 1)
+            throw new IllegalArgumentException("anchoHaz: " + anchoHaz);
+        this.anchoHaz = anchoHaz;
+        this.presupuesto = presupuesto * 1000000L;
+    }
+
+    /**
+     * Busca la mejor serie de jugadas desde un tablero. El tablero no cambia.
+     *
+     * @param tablero posición de partida.
+     * @return mejor serie de jugadas encontrada, y los puntos que suma.
+     */
+    public Solucion resuelve(Tablero tablero) {
+        return resuelve(tablero, null);
+    }
+
+    /**
+     * Busca la mejor serie de jugadas desde un tablero, compartiendo con
+     * otras búsquedas los mejores puntos conseguidos. Si ninguna posición
+     * del haz puede ya superar esos puntos, se abandona la búsqueda:
+     * su resultado no sería el mejor. Las posiciones del haz no se podan
+     * una a una, para que el resultado de una búsqueda que no se abandona
+     * no dependa de lo que hayan avanzado las demás.
+     *
+     * @param tablero    posición de partida.
+     * @param compartida mejores puntos del tablero conseguidos por todas las
+     *                   búsquedas; NULL si se busca sola.
+     * @return mejor serie de jugadas encontrada, y los puntos que suma.
+     */
+    Solucion resuelve(Tablero tablero, AtomicInteger compartida) {
+        long inicio = System.nanoTime();
+        int ancho = tablero.getAncho();
+        int alto = tablero.getAlto();
+        int[] jugadas = new int[ancho * alto + 2];
+        int[] cuenta = new int[tablero.getNColores()];
+        tablero.cuentaColores(cuenta);
+        TablaTransposicion tabla = new TablaTransposicion(4 * 1024 * 1024);
+        Nodo raiz = new Nodo(new Tablero(tablero), cuenta, null, -1, 0);
+        Nodo mejor = raiz;
+        List<Nodo> haz = new ArrayList<Nodo>();
+        haz.add(raiz);
+        posiciones = 0;
+        boolean agotado = false;
+        abandonada = false;
+        while (!haz.isEmpty() && !agotado) {
+            List<Nodo> candidatos = new ArrayList<Nodo>();
+            for (Nodo nodo : haz) {
+                Tablero padre = nodo.tablero;
+                int fichas = padre.getNFichas();
+                int n = padre.getJugadas(jugadas);
+                for (int k = 0; k < n && !agotado; k++) {
+                    int celda = jugadas[2 * k];
+                    int color = padre.getIndiceColor(celda / alto, celda % alto);
+                    Tablero hijo = padre.copiaYClic(celda / alto, celda % alto);
+                    posiciones++;
+                    agotado = System.nanoTime() - inicio > presupuesto || Thread.currentThread().isInterrupted();
+                    if (!tabla.mejora(hijo.getHash(), hijo.getPuntos()))
+                        continue;
+                    int[] cuentaHijo = nodo.cuenta.clone();
+                    cuentaHijo[color] -= fichas - hijo.getNFichas();
+                    Nodo candidato = new Nodo(hijo, cuentaHijo, nodo, celda, hijo.getPuntos() + cota(cuentaHijo));
+                    candidatos.add(candidato);
+                    if (candidato.puntos > mejor.puntos)
+                        mejor = candidato;
+                }
+                // ya no hace falta: sólo se guarda el camino
+                nodo.tablero = null;
+                nodo.cuenta = null;
+                if (agotado)
+                    break;
+            }
+            Collections.sort(candidatos, POR_VALORACION);
+            haz = candidatos.size() > anchoHaz ? candidatos.subList(0, anchoHaz) : candidatos;
+            if (compartida != null) {
+                int global = acumula(compartida, mejor.puntos);
+                if (!haz.isEmpty() && haz.get(0).valoracion < global && mejor.puntos < global) {
+                    abandonada = true;
+                    break;
+                }
+            }
+        }
+        Solucion solucion = solucion(mejor, raiz.puntos, alto);
+        LOGGER.fine("BusquedaHaz: " + solucion.getPuntos() + " puntos, " + posiciones + " posiciones en "
+                + (System.nanoTime() - inicio) / 1000000 + " ms" + (agotado ? " (sin tiempo)" : ""));
+        return solucion;
+    }
+
+    /**
+     * @return número de posiciones examinadas en la última búsqueda.
+     */
+    public long getPosiciones() {
+        return posiciones;
+    }
+
+    /**
+     * @return TRUE si la última búsqueda se abandonó porque otra ya había
+     * conseguido más puntos de los que esta podía conseguir.
+     */
+    boolean isAbandonada() {
+        return abandonada;
+    }
+
+    /**
+     * Sube los puntos compartidos, si los propios son mejores.
+     *
+     * @param compartida mejores puntos de todas las búsquedas.
+     * @param puntos     mejores puntos de esta búsqueda.
+     * @return mejores puntos de todas las búsquedas, contando esta.
+     */
+    private static int acumula(AtomicInteger compartida, int puntos) {
+        int actual = compartida.get();
+        while (puntos > actual && !compartida.compareAndSet(actual, puntos))
+            actual = compartida.get();
+        return Math.max(actual, puntos);
+    }
+
+    /**
+     * Cota superior de los puntos que quedan por conseguir en un tablero:
+     * como mucho, todas las fichas de un color se eliminan de una vez,
+     * así que no se pueden sumar más de k * (k-1) puntos por cada color
+     * del que quedan k fichas.
+     *
+     * @param tablero posición.
+     * @param cuenta  array de al menos tablero.getNColores() posiciones, para las cuentas.
+     * @return suma de k * (k-1) para cada color.
+     */
+    static long cota(Tablero tablero, int[] cuenta) {
+        tablero.cuentaColores(cuenta);
+        long cota = 0;
+        for (int c = 0; c < tablero.getNColores(); c++)
+            cota += (long) cuenta[c] * (cuenta[c] - 1);
+        return cota;
+    }
+
+    /**
+     * Cota de cota(Tablero, int[]) a partir de las fichas de cada color.
+     *
+     * @param cuenta fichas de cada color.
+     * @return suma de k * (k-1) para cada color.
+     */
+    private static long cota(int[] cuenta) {
+        long cota = 0;
+        for (int k : cuenta)
+            cota += (long) k * (k - 1);
+        return cota;
+    }
+
+    /**
+     * Reconstruye las jugadas que llevan hasta un nodo.
+     *
+     * @param nodo        último nodo del camino.
+     * @param puntosRaiz  puntos del tablero de partida.
+     * @param alto        número de casillas a lo alto del tablero.
+     * @return solución con las jugadas desde la raíz.
+     */
+    private static Solucion solucion(Nodo nodo, int puntosRaiz, int alto) {
+        int n = 0;
+        for (Nodo p = nodo; p.padre != null; p = p.padre)
+            n++;
+        int[] celdas = new int[n];
+        int puntos = nodo.puntos - puntosRaiz;
+        for (Nodo p = nodo; p.padre != null; p = p.padre)
+            celdas[--n] = p.celda;
+        return new Solucion(celdas, alto, puntos);
+    }
+
+    /**
+     * Ordena los nodos de mejor a peor valoración; a igualdad, se mantiene
+     * el orden en que se generaron, para que la búsqueda sea reproducible.
+     */
+    private static final Comparator<Nodo> POR_VALORACION = new Comparator<Nodo>() {
+        public int compare(Nodo a, Nodo b) {
+            return Long.compare(b.valoracion, a.valoracion);
+        }
+    };
+
+    /**
+     * Posición en el haz, con el camino por el que se ha llegado a ella.
+     */
+    private static class Nodo {
+        /**
+         * posición; NULL cuando ya se han generado sus hijos
+         */
+        Tablero tablero;
+        /**
+         * fichas de cada color del tablero; NULL cuando ya se han generado sus hijos
+         */
+        int[] cuenta;
+        /**
+         * nodo anterior en el camino; NULL en la raíz
+         */
+        final Nodo padre;
+        /**
+         * casilla en la que se hizo clic para llegar desde el padre
+         */
+        final int celda;
+        /**
+         * puntos del tablero
+         */
+        final int puntos;
+        /**
+         * puntos más cota de los que quedan
+         */
+        final long valoracion;
+
+        Nodo(Tablero tablero, int[] cuenta, Nodo padre, int celda, long valoracion) {
+            this.tablero = tablero;
+            this.cuenta = cuenta;
+            this.padre = padre;
+            this.celda = celda;
+            this.puntos = tablero.getPuntos();
+            this.valoracion = valoracion;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package colorjunction.solver;
+
+import colorjunction.Tablero;
+import colorjunction.conf.Configuracion;
+import log.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Jugador automático que reparte la búsqueda entre varios hilos.
+ * Desarrolla las primeras jugadas (una o más) desde el tablero de partida,
+ * sin repetir posiciones, y lanza en un ForkJoinPool una búsqueda en haz
+ * (BusquedaHaz) desde cada posición resultante.
+ * <p>
+ * Las búsquedas comparten los mejores puntos conseguidos hasta el momento:
+ * una búsqueda que ya no puede superarlos se abandona, y deja el hilo
+ * libre para las demás. Como sólo se abandonan búsquedas que no pueden
+ * dar el mejor resultado, y a igualdad de puntos gana la primera posición
+ * de partida, el resultado no depende del reparto entre hilos: es siempre
+ * el mismo para un mismo tablero.
+ *
+ * @author Javier López Medina
+ * @version 1.0
+ */
+public class BusquedaParalela implements Buscador {
+    /**
+     * número de posiciones que conserva en cada paso cada búsqueda en haz
+     */
+    private final int anchoHaz;
+    /**
+     * número de jugadas que se desarrollan antes de repartir
+     */
+    private final int jugadasIniciales;
+    /**
+     * hilos que buscan
+     */
+    private final ForkJoinPool hilos;
+    /**
+     * posiciones examinadas en la última búsqueda, por todos los hilos
+     */
+    private long posiciones;
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger.getLogger("colorjunction.solver.BusquedaParalela");
+
+    /**
+     * Constructor.
+     *
+     * @param anchoHaz         número de posiciones que conserva en cada paso cada búsqueda en haz.
+     * @param jugadasIniciales número de jugadas que se desarrollan antes de repartir, al menos 1.
+     * @param nHilos           número de hilos.
+     */
+    public BusquedaParalela(int anchoHaz, int jugadasIniciales, int nHilos) {
+        if (anchoHaz < 1)
+            throw new IllegalArgumentException("anchoHaz: " + anchoHaz);
+        if (jugadasIniciales < 1)
+            throw new IllegalArgumentException("jugadasIniciales: " + jugadasIniciales);
+        this.anchoHaz = anchoHaz;
+        this.jugadasIniciales = jugadasIniciales;
+        this.hilos = new ForkJoinPool(nHilos);
+    }
+
+    /**
+     * Busca la mejor serie de jugadas desde un tablero. El tablero no cambia.
+     *
+     * @param tablero posición de partida.
+     * @return mejor serie de jugadas encontrada, y los puntos que suma.
+     */
+    public Solucion resuelve(Tablero tablero) {
+        long inicio = System.nanoTime();
+        int alto = tablero.getAlto();
+        List<Tablero> raices = new ArrayList<Tablero>();
+        List<int[]> caminos = new ArrayList<int[]>();
+        desarrolla(new Tablero(tablero), raices, caminos);
+        final AtomicInteger compartida = new AtomicInteger(tablero.getPuntos());
+        final Busqueda[] busquedas = new Busqueda[raices.size()];
+        for (int k = 0; k < busquedas.length; k++)
+            busquedas[k] = new Busqueda(raices.get(k), compartida);
+        hilos.invoke(new RecursiveAction() {
+            protected void compute() {
+                invokeAll(busquedas);
+            }
+        });
+        // a igualdad de puntos, la primera: el resultado no depende de los hilos
+        int mejor = 0;
+        posiciones = 0;
+        int abandonadas = 0;
+        for (int k = 0; k < busquedas.length; k++) {
+            posiciones += busquedas[k].haz.getPosiciones();
+            if (busquedas[k].haz.isAbandonada())
+                abandonadas++;
+            if (busquedas[k].total() > busquedas[mejor].total())
+                mejor = k;
+        }
+        int[] prefijo = caminos.get(mejor);
+        Solucion resto = busquedas[mejor].solucion;
+        int[] celdas = new int[prefijo.length + resto.getNJugadas()];
+        System.arraycopy(prefijo, 0, celdas, 0, prefijo.length);
+        for (int k = 0; k < resto.getNJugadas(); k++)
+            celdas[prefijo.length + k] = resto.getCelda(k);
+        Solucion solucion = new Solucion(celdas, alto, busquedas[mejor].total() - tablero.getPuntos());
+        LOGGER.fine("BusquedaParalela: " + solucion.getPuntos() + " puntos, " + busquedas.length + " búsquedas ("
+                + abandonadas + " abandonadas), " + posiciones + " posiciones en "
+                + (System.nanoTime() - inicio) / 1000000 + " ms con " + hilos.getParallelism() + " hilos");
+        return solucion;
+    }
+
+    /**
+     * @return número de posiciones examinadas en la última búsqueda, por todos los hilos.
+     */
+    public long getPosiciones() {
+        return posiciones;
+    }
+
+    /**
+     * Termina los hilos. No se puede volver a buscar.
+     */
+    public void cierra() {
+        hilos.shutdown();
+    }
+
+    /**
+     * Desarrolla las jugadasIniciales primeras jugadas, sin repetir posiciones.
+     * Las posiciones sin jugadas antes de llegar se quedan como están.
+     *
+     * @param tablero posición de partida.
+     * @param raices  posiciones desde las que buscar, en orden de jugadas.
+     * @param caminos jugadas que llevan a cada posición.
+     */
+    private void desarrolla(Tablero tablero, List<Tablero> raices, List<int[]> caminos) {
+        int alto = tablero.getAlto();
+        int[] jugadas = new int[tablero.getAncho() * alto + 2];
+        TablaTransposicion vistas = new TablaTransposicion(1 << 20);
+        raices.add(tablero);
+        caminos.add(new int[0]);
+        for (int nivel = 0; nivel < jugadasIniciales; nivel++) {
+            List<Tablero> siguientes = new ArrayList<Tablero>();
+            List<int[]> caminosSiguientes = new ArrayList<int[]>();
+            for (int i = 0; i < raices.size(); i++) {
+                Tablero padre = raices.get(i);
+                int[] camino = caminos.get(i);
+                int n = padre.getJugadas(jugadas);
+                if (n == 0) {
+                    siguientes.add(padre);
+                    caminosSiguientes.add(camino);
+                    continue;
+                }
+                for (int k = 0; k < n; k++) {
+                    int celda = jugadas[2 * k];
+                    Tablero hijo = padre.copiaYClic(celda / alto, celda % alto);
+                    if (!vistas.mejora(hijo.getHash(), hijo.getPuntos()))
+                        continue;
+                    int[] siguiente = new int[camino.length + 1];
+                    System.arraycopy(camino, 0, siguiente, 0, camino.length);
+                    siguiente[camino.length] = celda;
+                    siguientes.add(hijo);
+                    caminosSiguientes.add(siguiente);
+                }
+            }
+            raices.clear();
+            raices.addAll(siguientes);
+            caminos.clear();
+            caminos.addAll(caminosSiguientes);
+        }
+    }
+
+    /**
+     * Búsqueda en haz desde una de las posiciones de partida.
+     */
+    private class Busqueda extends RecursiveAction {
+        /**
+         * posición de partida
+         */
+        private final Tablero tablero;
+        /**
+         * mejores puntos de todas las búsquedas
+         */
+        private final AtomicInteger compartida;
+        /**
+         * la búsqueda
+         */
+        final BusquedaHaz haz = new BusquedaHaz(anchoHaz, Long.MAX_VALUE / 1000000L);
+        /**
+         * resultado de la búsqueda
+         */
+        Solucion solucion;
+
+        Busqueda(Tablero tablero, AtomicInteger compartida) {
+            this.tablero = tablero;
+            this.compartida = compartida;
+        }
+
+        protected void compute() {
+            solucion = haz.resuelve(tablero, compartida);
+        }
+
+        /**
+         * @return puntos del tablero al final de la solución.
+         */
+        int total() {
+            return tablero.getPuntos() + solucion.getPuntos();
+        }
+    }
+
+    /**
+     * Informe de escalado: resuelve el mismo tablero con 1, 2, 4... hilos,
+     * hasta el número de procesadores, y da las posiciones por segundo.
+     *
+     * @param args ancho, alto, colores, semilla, ancho del haz y jugadas iniciales;
+     *             por omisión, 20 20 5 0 100 1.
+     */
+    public static void main(String[] args) {
+        int ancho = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int alto = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int nColores = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        long semilla = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        int anchoHaz = args.length > 4 ? Integer.parseInt(args[4]) : 100;
+        int jugadasIniciales = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+        Tablero tablero = new Tablero(semilla, new Configuracion(ancho, alto, nColores));
+        int procesadores = Runtime.getRuntime().availableProcessors();
+        System.out.println("hilos\tpuntos\tposiciones\tms\tposiciones/s");
+        for (int n = 1; ; n = Math.min(2 * n, procesadores)) {
+            BusquedaParalela busqueda = new BusquedaParalela(anchoHaz, jugadasIniciales, n);
+            long t0 = System.nanoTime();
+            Solucion solucion = busqueda.resuelve(tablero);
+            long ns = Math.max(1, System.nanoTime() - t0);
+            busqueda.cierra();
+            System.out.println(n + "\t" + solucion.getPuntos() + "\t" + busqueda.getPosiciones() + "\t"
+                    + ns / 1000000 + "\t" + busqueda.getPosiciones() * 1000000000L / ns);
+            if (n == procesadores)
+                break;
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package colorjunction;
+
+import colorjunction.conf.Configuracion;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Clasificación local de resultados: guarda los mejores resultados de
+ * cada tablero (ancho, alto, colores y semilla) y de cada configuración
+ * (ancho, alto y colores).
+ * <p>
+ * En memoria hay un montículo con los k mejores de cada tablero y otro con
+ * los k mejores de cada configuración, así que las consultas sólo miran
+ * k resultados, tenga los que tenga el fichero. Los resultados que entran
+ * en alguno se añaden al final del fichero, en registros de 21 bytes
+ * (ancho, alto, colores, semilla, puntos y pasos). Los que luego salen de
+ * todos los montículos siguen en el fichero hasta que se compacta: cuando
+ * tiene más del doble de registros que resultados retenidos, se reescribe
+ * con sólo estos, en un fichero aparte que sustituye al original.
+ * <p>
+ * Un resultado es mejor que otro si tiene más puntos o, con los mismos
+ * puntos, menos pasos.
+ *
+ * @author Javier López Medina
+ * @version 1.0
+ */
+public class Clasificacion implements Closeable {
+    /**
+     * bytes de cada registro del fichero
+     */
+    private static final int REGISTRO = 2 + 2 + 1 + 8 + 4 + 4;
+    /**
+     * registros por debajo de los cuales no se compacta
+     */
+    private static final int MIN_COMPACTAR = 1024;
+    /**
+     * orden de los montículos: el peor resultado, primero
+     */
+    private static final Comparator<Resultado> PEOR_PRIMERO = new Comparator<Resultado>() {
+        public int compare(Resultado a, Resultado b) {
+            if (a.puntos != b.puntos)
+                return Integer.compare(a.puntos, b.puntos);
+            return Integer.compare(b.pasos, a.pasos);
+        }
+    };
+
+    /**
+     * el fichero
+     */
+    private final File fichero;
+    private FileChannel canal;
+    /**
+     * resultados que se retienen por tablero y por configuración
+     */
+    private final int k;
+    /**
+     * montículos de cada tablero y de cada configuración
+     */
+    private final Map<ClaveTablero, PriorityQueue<Resultado>> porTablero = new HashMap<ClaveTablero, PriorityQueue<Resultado>>();
+    private final Map<Long, PriorityQueue<Resultado>> porConfiguracion = new HashMap<Long, PriorityQueue<Resultado>>();
+    /**
+     * resultados en algún montículo, y registros en el fichero
+     */
+    private int retenidos;
+    private long registros;
+    /**
+     * buffer de escritura de un registro
+     */
+    private final ByteBuffer registro = ByteBuffer.allocate(REGISTRO);
+
+    /**
+     * Abre la clasificación de un fichero, y lo crea si no existe.
+     *
+     * @param fichero fichero de la clasificación.
+     * @param k       resultados que se retienen por tablero y por configuración, al menos 1.
+     * @throws IOException si no se puede leer o crear el fichero.
+     */
+    public Clasificacion(File fichero, int k) throws IOException {
+        if (k < 1)
+            throw new IllegalArgumentException("k: " + k);
+        this.fichero = fichero;
+        this.k = k;
+        canal = FileChannel.open(fichero.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        ByteBuffer lectura = ByteBuffer.allocate(REGISTRO * 4096);
+        // bytes leídos del fichero, y final del último registro completo
+        long leido = 0;
+        long posicion = 0;
+        int n;
+        while ((n = canal.read(lectura, leido)) > 0) {
+            leido += n;
+            lectura.flip();
+            while (lectura.remaining() >= REGISTRO) {
+                retiene(new Resultado(lectura.getShort() & 0xFFFF, lectura.getShort() & 0xFFFF,
+                        lectura.get() & 0xFF, lectura.getLong(), lectura.getInt(), lectura.getInt()));
+                posicion += REGISTRO;
+                registros++;
+            }
+            // lo que sobra de un registro se completa con la siguiente lectura
+            lectura.compact();
+        }
+        // un registro a medias al final se sobrescribe
+        canal.truncate(posicion);
+        canal.position(posicion);
+        compactaSiHaceFalta();
+    }
+
+    /**
+     * Apunta un resultado. Si entra entre los mejores de su tablero o de
+     * su configuración, se escribe en el fichero.
+     *
+     * @param configuracion configuración del tablero.
+     * @param semilla       semilla del tablero.
+     * @param puntos        puntos conseguidos.
+     * @param pasos         jugadas hechas.
+     * @return TRUE si ha entrado entre los mejores.
+     * @throws IOException si no se puede escribir.
+     */
+    public boolean apunta(Configuracion configuracion, long semilla, int puntos, int pasos) throws IOException {
+        Resultado resultado = new Resultado(configuracion.getAncho(), configuracion.getAlto(),
+                configuracion.getNColores(), semilla, puntos, pasos);
+        if (!retiene(resultado))
+            return false;
+        escribe(canal, resultado);
+        registros++;
+        compactaSiHaceFalta();
+        return true;
+    }
+
+    /**
+     * Mejor resultado de un tablero.
+     *
+     * @param configuracion configuración del tablero.
+     * @param semilla       semilla del tablero.
+     * @return el mejor resultado; NULL si no hay ninguno.
+     */
+    public Resultado mejor(Configuracion configuracion, long semilla) {
+        PriorityQueue<Resultado> monticulo = porTablero.get(new ClaveTablero(configuracion.getAncho(),
+                configuracion.getAlto(), configuracion.getNColores(), semilla));
+        if (monticulo == null)
+            return null;
+        return Collections.max(monticulo, PEOR_PRIMERO);
+    }
+
+    /**
+     * Mejores resultados de un tablero.
+     *
+     * @param configuracion configuración del tablero.
+     * @param semilla       semilla del tablero.
+     * @return hasta k resultados, del mejor al peor.
+     */
+    public List<Resultado> mejores(Configuracion configuracion, long semilla) {
+        return ordena(porTablero.get(new ClaveTablero(configuracion.getAncho(), configuracion.getAlto(),
+                configuracion.getNColores(), semilla)));
+    }
+
+    /**
+     * Mejores resultados de una configuración, en cualquier tablero.
+     *
+     * @param configuracion configuración.
+     * @return hasta k resultados, del mejor al peor.
+     */
+    public List<Resultado> mejores(Configuracion configuracion) {
+        return ordena(porConfiguracion.get(clave(configuracion.getAncho(), configuracion.getAlto(),
+                configuracion.getNColores())));
+    }
+
+    /**
+     * @return resultados retenidos en memoria.
+     */
+    public int getRetenidos() {
+        return retenidos;
+    }
+
+    /**
+     * @return registros en el fichero, retenidos o no.
+     */
+    public long getRegistros() {
+        return registros;
+    }
+
+    /**
+     * Cierra el fichero.
+     *
+     * @throws IOException si falla al cerrar.
+     */
+    public void close() throws IOException {
+        canal.close();
+    }
+
+    /**
+     * Mete un resultado en los montículos de su tablero y de su configuración,
+     * si entra en alguno, y saca los que quedan fuera.
+     *
+     * @param resultado resultado.
+     * @return TRUE si ha entrado en alguno.
+     */
+    private boolean retiene(Resultado resultado) {
+        ClaveTablero tablero = new ClaveTablero(resultado.ancho, resultado.alto, resultado.nColores, resultado.semilla);
+        PriorityQueue<Resultado> deTablero = porTablero.get(tablero);
+        if (deTablero == null) {
+            deTablero = new PriorityQueue<Resultado>(k + 1, PEOR_PRIMERO);
+            porTablero.put(tablero, deTablero);
+        }
+        Long configuracion = clave(resultado.ancho, resultado.alto, resultado.nColores);
+        PriorityQueue<Resultado> deConfiguracion = porConfiguracion.get(configuracion);
+        if (deConfiguracion == null) {
+            deConfiguracion = new PriorityQueue<Resultado>(k + 1, PEOR_PRIMERO);
+            porConfiguracion.put(configuracion, deConfiguracion);
+        }
+        boolean entra = mete(deTablero, resultado);
+        entra |= mete(deConfiguracion, resultado);
+        return entra;
+    }
+
+    /**
+     * Mete un resultado en un montículo si entra entre los k mejores.
+     *
+     * @param monticulo montículo.
+     * @param resultado resultado.
+     * @return TRUE si ha entrado.
+     */
+    private boolean mete(PriorityQueue<Resultado> monticulo, Resultado resultado) {
+        if (monticulo.size() == k && PEOR_PRIMERO.compare(resultado, monticulo.peek()) <= 0)
+            return false;
+        monticulo.add(resultado);
+        if (resultado.monticulos++ == 0)
+            retenidos++;
+        if (monticulo.size() > k) {
+            Resultado fuera = monticulo.poll();
+            if (--fuera.monticulos == 0)
+                retenidos--;
+        }
+        return true;
+    }
+
+    /**
+     * Compacta el fichero si tiene más del doble de registros que resultados retenidos.
+     *
+     * @throws IOException si no se puede reescribir.
+     */
+    private void compactaSiHaceFalta() throws IOException {
+        if (registros >= MIN_COMPACTAR && registros > 2L * retenidos)
+            compacta();
+    }
+
+    /**
+     * Reescribe el fichero con sólo los resultados retenidos, en un fichero
+     * aparte que luego sustituye al original: si algo falla a medias, el
+     * original sigue valiendo.
+     *
+     * @throws IOException si no se puede reescribir.
+     */
+    public void compacta() throws IOException {
+        File nuevo = new File(fichero.getPath() + ".nuevo");
+        FileChannel destino = FileChannel.open(nuevo.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        long escritos = 0;
+        try {
+            for (PriorityQueue<Resultado> monticulo : porTablero.values())
+                for (Resultado resultado : monticulo) {
+                    escribe(destino, resultado);
+                    escritos++;
+                }
+            // los que sólo están entre los mejores de su configuración
+            for (PriorityQueue<Resultado> monticulo : porConfiguracion.values())
+                for (Resultado resultado : monticulo)
+                    if (!porTablero.get(new ClaveTablero(resultado.ancho, resultado.alto, resultado.nColores,
+                            resultado.semilla)).contains(resultado)) {
+                        escribe(destino, resultado);
+                        escritos++;
+                    }
+            destino.force(false);
+        } finally {
+            destino.close();
+        }
+        canal.close();
+        Files.move(nuevo.toPath(), fichero.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        canal = FileChannel.open(fichero.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        canal.position(canal.size());
+        registros = escritos;
+    }
+
+    /**
+     * Escribe un resultado en la posición de un fichero.
+     *
+     * @param destino   fichero.
+     * @param resultado resultado.
+     * @throws IOException si no se puede escribir.
+     */
+    private void escribe(FileChannel destino, Resultado resultado) throws IOException {
+        registro.clear();
+        registro.putShort((short) resultado.ancho);
+        registro.putShort((short) resultado.alto);
+        registro.put((byte) resultado.nColores);
+        registro.putLong(resultado.semilla);
+        registro.putInt(resultado.puntos);
+        registro.putInt(resultado.pasos);
+        registro.flip();
+        while (registro.hasRemaining())
+            destino.write(registro);
+    }
+
+    /**
+     * Mejores resultados de un montículo.
+     *
+     * @param monticulo montículo; NULL si no hay.
+     * @return resultados del montículo, del mejor al peor.
+     */
+    private static List<Resultado> ordena(PriorityQueue<Resultado> monticulo) {
+        if (monticulo == null)
+            return Collections.emptyList();
+        List<Resultado> lista = new ArrayList<Resultado>(monticulo);
+        Collections.sort(lista, Collections.reverseOrder(PEOR_PRIMERO));
+        return lista;
+    }
+
+    /**
+     * Clave de una configuración.
+     */
+    private static Long clave(int ancho, int alto, int nColores) {
+        return ((long) ancho << 32) | ((long) alto << 8) | nColores;
+    }
+
+    /**
+     * Clave de un tablero: configuración y semilla.
+     */
+    private static class ClaveTablero {
+        final long configuracion;
+        final long semilla;
+
+        ClaveTablero(int ancho, int alto, int nColores, long semilla) {
+            this.configuracion = clave(ancho, alto, nColores);
+            this.semilla = semilla;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof ClaveTablero))
+                return false;
+            ClaveTablero otro = (ClaveTablero) o;
+            return configuracion == otro.configuracion && semilla == otro.semilla;
+        }
+
+        public int hashCode() {
+            long h = configuracion * 0x9E3779B97F4A7C15L ^ semilla;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    /**
+     * Resultado de una partida.
+     */
+    public static class Resultado {
+        private final int ancho;
+        private final int alto;
+        private final int nColores;
+        private final long semilla;
+        private final int puntos;
+        private final int pasos;
+        /**
+         * montículos en los que está
+         */
+        private int monticulos;
+
+        Resultado(int ancho, int alto, int nColores, long semilla, int puntos, int pasos) {
+            this.ancho = ancho;
+            this.alto = alto;
+            this.nColores = nColores;
+            this.semilla = semilla;
+            this.puntos = puntos;
+            this.pasos = pasos;
+        }
+
+        public int getAncho() {
+            return ancho;
+        }
+
+        public int getAlto() {
+            return alto;
+        }
+
+        public int getNColores() {
+            return nColores;
+        }
+
+        public long getSemilla() {
+            return semilla;
+        }
+
+        public int getPuntos() {
+            return puntos;
+        }
+
+        public int getPasos() {
+            return pasos;
+        }
+
+        public String toString() {
+            return ancho + "x" + alto + "x" + nColores + " semilla " + semilla + ": " + puntos + " puntos en "
+                    + pasos + " pasos";
+        }
+    }
+}
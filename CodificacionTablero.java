@@ -0,0 +1,267 @@
+package colorjunction;
+
+import colorjunction.conf.Configuracion;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Codificación binaria compacta de las fichas de un tablero, para guardar
+ * y transmitir muchas posiciones: ocupa de 2 a 4 bits por casilla en vez
+ * del carácter por casilla de Tablero.getFirma(), y se lee sin crear Strings.
+ * <p>
+ * Formato, versión 1:
+ * <pre>
+ *   1 byte   versión (1)
+ *   2 bytes  ancho, sin signo
+ *   2 bytes  alto, sin signo
+ *   1 byte   número de colores, de MIN_COLORES a MAX_COLORES
+ *   casillas columna a columna (x * alto + y), con bitsPorCasilla() bits cada una:
+ *            0 si no hay ficha, índice de color + 1 si la hay; el bit más
+ *            significativo primero, y el último byte completado con ceros
+ * </pre>
+ * Los 4 bits por casilla darían para 15 colores, pero sólo se admiten los
+ * de la paleta de Configuracion, y las medidas de la cabecera tienen que
+ * estar entre los límites de Configuracion: si no, el tablero no se
+ * podría leer.
+ * <p>
+ * Como en la firma, sólo se guardan las fichas: no los pasos, ni los puntos,
+ * ni el historial. Se lee y se escribe en ByteBuffers, a partir de su
+ * posición, que queda detrás del tablero: se pueden encadenar tableros
+ * en un mismo buffer.
+ *
+ * @author Javier López Medina
+ * @version 1.0
+ */
+public final class CodificacionTablero {
+    /**
+     * versión del formato
+     */
+    public static final int VERSION = 1;
+    /**
+     * bytes de la cabecera
+     */
+    public static final int CABECERA = 6;
+    /**
+     * mínimo número de colores, el de Configuracion
+     */
+    public static final int MIN_COLORES = Configuracion.getMinColores();
+    /**
+     * máximo número de colores: los de la paleta de Configuracion, que caben
+     * en 4 bits con la casilla vacía
+     */
+    public static final int MAX_COLORES = Configuracion.getMaxColores();
+
+    private CodificacionTablero() {
+    }
+
+    /**
+     * Bits que ocupa cada casilla: los justos para los colores y la casilla vacía.
+     *
+     * @param nColores número de colores, de MIN_COLORES a MAX_COLORES.
+     * @return 2, 3 ó 4.
+     */
+    public static int bitsPorCasilla(int nColores) {
+        if (nColores < MIN_COLORES || nColores > MAX_COLORES)
+            throw new IllegalArgumentException("nColores: " + nColores);
+        if (nColores < 4)
+            return 2;
+        return nColores < 8 ? 3 : 4;
+    }
+
+    /**
+     * Bytes que ocupa un tablero codificado, con la cabecera.
+     *
+     * @param ancho    casillas a lo ancho.
+     * @param alto     casillas a lo alto.
+     * @param nColores número de colores.
+     * @return bytes del tablero codificado.
+     */
+    public static int tamano(int ancho, int alto, int nColores) {
+        return CABECERA + (int) (((long) ancho * alto * bitsPorCasilla(nColores) + 7) / 8);
+    }
+
+    /**
+     * Bytes que ocupa un tablero codificado, con la cabecera.
+     *
+     * @param tablero tablero.
+     * @return bytes del tablero codificado.
+     */
+    public static int tamano(Tablero tablero) {
+        return tamano(tablero.getAncho(), tablero.getAlto(), tablero.getNColores());
+    }
+
+    /**
+     * Codifica un tablero en un array nuevo.
+     *
+     * @param tablero tablero.
+     * @return tablero codificado.
+     */
+    public static byte[] codifica(Tablero tablero) {
+        byte[] bytes = new byte[tamano(tablero)];
+        codifica(tablero, ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /**
+     * Codifica un tablero en un buffer, a partir de su posición.
+     *
+     * @param tablero tablero.
+     * @param destino buffer, con al menos tamano(tablero) bytes libres.
+     * @throws java.nio.BufferOverflowException si no cabe.
+     */
+    public static void codifica(Tablero tablero, ByteBuffer destino) {
+        int ancho = tablero.getAncho();
+        int alto = tablero.getAlto();
+        int nColores = tablero.getNColores();
+        int bits = bitsPorCasilla(nColores);
+        destino.put((byte) VERSION);
+        destino.putShort((short) ancho);
+        destino.putShort((short) alto);
+        destino.put((byte) nColores);
+        int acumulado = 0;
+        int nBits = 0;
+        for (int x = 0; x < ancho; x++)
+            for (int y = 0; y < alto; y++) {
+                acumulado = (acumulado << bits) | (tablero.getIndiceColor(x, y) + 1);
+                nBits += bits;
+                if (nBits >= 8) {
+                    nBits -= 8;
+                    destino.put((byte) (acumulado >>> nBits));
+                }
+            }
+        if (nBits > 0)
+            destino.put((byte) (acumulado << (8 - nBits)));
+    }
+
+    /**
+     * Lee un tablero codificado, a partir de la posición del buffer.
+     * Pasos y puntos quedan a 0.
+     *
+     * @param origen buffer.
+     * @return tablero nuevo con las fichas leídas.
+     * @throws IllegalArgumentException si la versión, las medidas o el número
+     *                                  de colores de la cabecera, o alguna casilla, no son válidos.
+     * @throws BufferUnderflowException si el buffer se acaba antes que el tablero.
+     */
+    public static Tablero decodifica(ByteBuffer origen) {
+        Configuracion configuracion = leeCabecera(origen);
+        int bits = bitsPorCasilla(configuracion.getNColores());
+        compruebaCasillas(origen, configuracion.getAncho(), configuracion.getAlto(), bits, configuracion.getNColores());
+        byte[][] columnas = new byte[configuracion.getAncho()][configuracion.getAlto()];
+        leeCasillas(origen, columnas, bits);
+        return new Tablero(configuracion, columnas);
+    }
+
+    /**
+     * Lee un tablero codificado en un tablero que ya existe, de las mismas
+     * medidas, sin reservar memoria una vez que sus columnas son propias.
+     * Pasos y puntos quedan a 0 y el historial, si lo hay, se vacía.
+     * <p>
+     * Las casillas se comprueban todas antes de escribir ninguna: si el
+     * tablero codificado no vale, destino queda como estaba.
+     *
+     * @param origen  buffer.
+     * @param destino tablero en el que se ponen las fichas leídas.
+     * @throws IllegalArgumentException si la versión o alguna casilla no son válidas o las medidas no son las de destino.
+     * @throws BufferUnderflowException si el buffer se acaba antes que el tablero.
+     */
+    public static void decodifica(ByteBuffer origen, Tablero destino) {
+        Configuracion configuracion = leeCabecera(origen);
+        int nColores = configuracion.getNColores();
+        if (configuracion.getAncho() != destino.getAncho() || configuracion.getAlto() != destino.getAlto()
+                || nColores != destino.getNColores())
+            throw new IllegalArgumentException("decodifica: " + configuracion.getAncho() + "x"
+                    + configuracion.getAlto() + "x" + nColores);
+        int bits = bitsPorCasilla(nColores);
+        compruebaCasillas(origen, destino.getAncho(), destino.getAlto(), bits, nColores);
+        leeCasillas(origen, destino.columnasParaEscribir(), bits);
+        destino.empieza();
+    }
+
+    /**
+     * Lee la cabecera de un tablero codificado.
+     *
+     * @param origen buffer.
+     * @return configuración con las medidas y el número de colores del tablero.
+     * @throws IllegalArgumentException si la versión, las medidas o el número de colores no son válidos.
+     */
+    private static Configuracion leeCabecera(ByteBuffer origen) {
+        if (origen.remaining() < CABECERA)
+            throw new BufferUnderflowException();
+        int version = origen.get() & 0xFF;
+        if (version != VERSION)
+            throw new IllegalArgumentException("version: " + version);
+        int ancho = origen.getShort() & 0xFFFF;
+        int alto = origen.getShort() & 0xFFFF;
+        int nColores = origen.get() & 0xFF;
+        if (nColores < MIN_COLORES || nColores > MAX_COLORES)
+            throw new IllegalArgumentException("cabecera no válida, colores: " + nColores);
+        try {
+            return new Configuracion(ancho, alto, nColores);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("cabecera no válida, " + ancho + "x" + alto + "x" + nColores
+                    + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Comprueba las casillas de un tablero codificado, sin moverse en el buffer.
+     *
+     * @param origen   buffer, detrás de la cabecera.
+     * @param ancho    casillas a lo ancho.
+     * @param alto     casillas a lo alto.
+     * @param bits     bits por casilla.
+     * @param nColores número de colores.
+     * @throws IllegalArgumentException si alguna casilla no es válida.
+     * @throws BufferUnderflowException si el buffer se acaba antes que el tablero.
+     */
+    private static void compruebaCasillas(ByteBuffer origen, int ancho, int alto, int bits, int nColores) {
+        long casillas = (long) ancho * alto;
+        if (origen.remaining() < (casillas * bits + 7) / 8)
+            throw new BufferUnderflowException();
+        int mascara = (1 << bits) - 1;
+        // con todos los valores de los bits ocupados, no hay casillas no válidas
+        if (nColores == mascara)
+            return;
+        int posicion = origen.position();
+        int acumulado = 0;
+        int nBits = 0;
+        for (int i = 0; i < casillas; i++) {
+            if (nBits < bits) {
+                acumulado = (acumulado << 8) | (origen.get(posicion++) & 0xFF);
+                nBits += 8;
+            }
+            nBits -= bits;
+            int valor = (acumulado >>> nBits) & mascara;
+            if (valor > nColores)
+                throw new IllegalArgumentException("casilla " + i / alto + "," + i % alto + ": " + valor);
+        }
+    }
+
+    /**
+     * Lee las casillas de un tablero codificado, ya comprobadas con compruebaCasillas().
+     *
+     * @param origen   buffer, detrás de la cabecera.
+     * @param columnas donde se ponen los índices de color, columnas[x][y].
+     * @param bits     bits por casilla.
+     */
+    private static void leeCasillas(ByteBuffer origen, byte[][] columnas, int bits) {
+        int ancho = columnas.length;
+        int alto = columnas[0].length;
+        int mascara = (1 << bits) - 1;
+        int acumulado = 0;
+        int nBits = 0;
+        for (int x = 0; x < ancho; x++) {
+            byte[] columna = columnas[x];
+            for (int y = 0; y < alto; y++) {
+                if (nBits < bits) {
+                    acumulado = (acumulado << 8) | (origen.get() & 0xFF);
+                    nBits += 8;
+                }
+                nBits -= bits;
+                columna[y] = (byte) (((acumulado >>> nBits) & mascara) - 1);
+            }
+        }
+    }
+}
@@ -18,13 +18,13 @@ public class Configuracion {
      *  límites inferior y superior de casillas a lo ancho
      */
     private static final int MIN_ANCHO = 3;
-    private static final int MAX_ANCHO = 20;
+    private static final int MAX_ANCHO = 2000;
 
     /**
      *  límites inferior y superior de casillas a lo alto
      */
     private static final int MIN_ALTO = 3;
-    private static final int MAX_ALTO = 20;
+    private static final int MAX_ALTO = 2000;
 
     /**
      * límites inferior y superior del número de colores
@@ -123,6 +123,20 @@ public class Configuracion {
         return colores[indice];
     }
 
+    /**
+     * @return número mínimo de colores.
+     */
+    public static int getMinColores() {
+        return MIN_COLORES;
+    }
+
+    /**
+     * @return número máximo de colores: el tamaño de la paleta.
+     */
+    public static int getMaxColores() {
+        return MAX_COLORES;
+    }
+
     /**
      * Los colores se numeran entre 0 y nColores.
      * Si el color no existe, devuelve -1.
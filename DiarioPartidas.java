@@ -0,0 +1,449 @@
+package colorjunction;
+
+import colorjunction.conf.Configuracion;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Diario de partidas: fichero binario al que sólo se añade, con una
+ * entrada por partida que basta para reconstruirla: la semilla, la
+ * configuración y las casillas en las que se hizo clic.
+ * <p>
+ * Cada entrada es una serie de enteros en varint (7 bits por byte, el bit
+ * alto indica que sigue otro byte), precedida de su longitud en bytes:
+ * <pre>
+ *   longitud  semilla (en zigzag)  ancho  alto  colores  n  casilla1 ... casillaN
+ * </pre>
+ * Las casillas van empaquetadas como x * alto + y, igual que en Tablero.
+ * Una partida de 10x10 ocupa unos 5 bytes más uno por jugada. Una entrada
+ * incompleta al final del fichero (por ejemplo, tras una caída) se ignora
+ * al leer, y se descarta al abrir el diario para añadir partidas.
+ * <p>
+ * Se escribe por un FileChannel a través de un buffer, que se vuelca al
+ * llenarse, con vuelca() o al cerrar. Se lee con un Lector, que reproduce
+ * cada partida sin historial ni trazas.
+ *
+ * @author Javier López Medina
+ * @version 1.0
+ */
+public class DiarioPartidas implements Closeable {
+    /**
+     * bytes del buffer de escritura y de lectura
+     */
+    private static final int BUFFER = 1 << 16;
+    /**
+     * bytes máximos de un varint de 64 bits
+     */
+    private static final int MAX_VARINT = 10;
+
+    /**
+     * el fichero
+     */
+    private final FileChannel canal;
+    /**
+     * entradas que esperan a escribirse
+     */
+    private final ByteBuffer escritura = ByteBuffer.allocate(BUFFER);
+    /**
+     * entrada en curso, sin la longitud
+     */
+    private ByteBuffer entrada = ByteBuffer.allocate(256);
+
+    /**
+     * Abre un diario para añadir partidas; si no existe, lo crea. Si acaba
+     * en una entrada incompleta, se corta: las partidas nuevas se añaden
+     * tras la última completa.
+     *
+     * @param fichero fichero del diario.
+     * @throws IOException si no se puede abrir o el diario está mal formado.
+     */
+    public DiarioPartidas(File fichero) throws IOException {
+        canal = FileChannel.open(fichero.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long fin = finDeEntradas(canal);
+            canal.truncate(fin);
+            canal.position(fin);
+        } catch (IOException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Recorre las longitudes de las entradas, sin leerlas, hasta la última completa.
+     *
+     * @param canal fichero del diario.
+     * @return bytes del fichero hasta el final de la última entrada completa.
+     * @throws IOException si no se puede leer o una longitud está mal formada.
+     */
+    private static long finDeEntradas(FileChannel canal) throws IOException {
+        long tamano = canal.size();
+        // ventana del fichero que empieza en fin
+        ByteBuffer lectura = ByteBuffer.allocate(BUFFER);
+        lectura.flip();
+        long fin = 0;
+        while (fin < tamano) {
+            if (lectura.remaining() < MAX_VARINT && fin + lectura.remaining() < tamano) {
+                lectura.clear();
+                while (lectura.hasRemaining() && canal.read(lectura, fin + lectura.position()) > 0)
+                    ;
+                lectura.flip();
+            }
+            int inicio = lectura.position();
+            long longitud;
+            try {
+                longitud = leeVarint(lectura);
+            } catch (BufferUnderflowException e) {
+                // longitud cortada
+                break;
+            }
+            int cabecera = lectura.position() - inicio;
+            if (longitud > tamano - fin - cabecera)
+                break;
+            fin += cabecera + longitud;
+            if (longitud <= lectura.remaining())
+                lectura.position(lectura.position() + (int) longitud);
+            else
+                lectura.position(lectura.limit());
+        }
+        return fin;
+    }
+
+    /**
+     * Apunta una partida.
+     *
+     * @param semilla       semilla del tablero de partida.
+     * @param configuracion configuración del tablero.
+     * @param jugadas       casillas en las que se hizo clic, como x * alto + y.
+     * @param n             número de jugadas.
+     * @throws IOException si no se puede escribir.
+     */
+    public void apunta(long semilla, Configuracion configuracion, int[] jugadas, int n) throws IOException {
+        int maximo = MAX_VARINT * 5 + 5 * n;
+        if (entrada.capacity() < maximo)
+            entrada = ByteBuffer.allocate(Math.max(maximo, 2 * entrada.capacity()));
+        entrada.clear();
+        escribeVarint(entrada, (semilla << 1) ^ (semilla >> 63));
+        escribeVarint(entrada, configuracion.getAncho());
+        escribeVarint(entrada, configuracion.getAlto());
+        escribeVarint(entrada, configuracion.getNColores());
+        escribeVarint(entrada, n);
+        for (int k = 0; k < n; k++)
+            escribeVarint(entrada, jugadas[k]);
+        entrada.flip();
+        if (escritura.remaining() < MAX_VARINT + entrada.remaining())
+            vuelca();
+        if (escritura.remaining() < MAX_VARINT + entrada.remaining()) {
+            // no cabe en el buffer: se escribe directamente
+            ByteBuffer longitud = ByteBuffer.allocate(MAX_VARINT);
+            escribeVarint(longitud, entrada.remaining());
+            longitud.flip();
+            escribe(longitud);
+            escribe(entrada);
+            return;
+        }
+        escribeVarint(escritura, entrada.remaining());
+        escritura.put(entrada);
+    }
+
+    /**
+     * Escribe en el fichero las partidas que esperan en el buffer.
+     *
+     * @throws IOException si no se puede escribir.
+     */
+    public void vuelca() throws IOException {
+        escritura.flip();
+        escribe(escritura);
+        escritura.clear();
+    }
+
+    /**
+     * Vuelca lo pendiente y cierra el fichero.
+     *
+     * @throws IOException si no se puede escribir.
+     */
+    public void close() throws IOException {
+        try {
+            vuelca();
+        } finally {
+            canal.close();
+        }
+    }
+
+    /**
+     * Escribe un buffer entero en el fichero.
+     *
+     * @param buffer datos, de la posición al límite.
+     * @throws IOException si no se puede escribir.
+     */
+    private void escribe(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            canal.write(buffer);
+    }
+
+    /**
+     * Escribe un entero sin signo en varint.
+     *
+     * @param buffer buffer.
+     * @param valor  entero, tomado sin signo.
+     */
+    static void escribeVarint(ByteBuffer buffer, long valor) {
+        while ((valor & ~0x7FL) != 0) {
+            buffer.put((byte) ((valor & 0x7F) | 0x80));
+            valor >>>= 7;
+        }
+        buffer.put((byte) valor);
+    }
+
+    /**
+     * Lector de un diario, partida a partida.
+     */
+    public static class Lector implements Closeable {
+        /**
+         * el fichero
+         */
+        private final FileChannel canal;
+        /**
+         * bytes leídos del fichero que aún no se han procesado
+         */
+        private ByteBuffer lectura = ByteBuffer.allocate(BUFFER);
+        /**
+         * partida en curso
+         */
+        private long semilla;
+        private Configuracion configuracion;
+        private int[] jugadas = new int[64];
+        private int nJugadas;
+        /**
+         * tablero en el que se reproducen las partidas, mientras no cambie la configuración
+         */
+        private Tablero tablero;
+
+        /**
+         * Abre un diario para leerlo.
+         *
+         * @param fichero fichero del diario.
+         * @throws IOException si no se puede abrir.
+         */
+        public Lector(File fichero) throws IOException {
+            canal = FileChannel.open(fichero.toPath(), StandardOpenOption.READ);
+            lectura.flip();
+        }
+
+        /**
+         * Pasa a la siguiente partida.
+         *
+         * @return FALSE si no quedan partidas completas.
+         * @throws IOException si no se puede leer o el diario está mal formado.
+         */
+        public boolean siguiente() throws IOException {
+            if (!disponibles(MAX_VARINT) && !lectura.hasRemaining())
+                return false;
+            long longitud;
+            try {
+                longitud = leeVarint(lectura);
+            } catch (BufferUnderflowException e) {
+                // entrada cortada al final del fichero
+                return false;
+            }
+            if (longitud > Integer.MAX_VALUE - MAX_VARINT)
+                throw new IOException("entrada de " + longitud + " bytes");
+            if (!disponibles((int) longitud))
+                return false;
+            int fin = lectura.position() + (int) longitud;
+            long zigzag = leeVarint(lectura);
+            semilla = (zigzag >>> 1) ^ -(zigzag & 1);
+            int ancho = (int) leeVarint(lectura);
+            int alto = (int) leeVarint(lectura);
+            int nColores = (int) leeVarint(lectura);
+            if (configuracion == null || configuracion.getAncho() != ancho || configuracion.getAlto() != alto
+                    || configuracion.getNColores() != nColores) {
+                configuracion = new Configuracion(ancho, alto, nColores);
+                tablero = null;
+            }
+            nJugadas = (int) leeVarint(lectura);
+            if (nJugadas < 0 || nJugadas > longitud)
+                throw new IOException("entrada con " + nJugadas + " jugadas");
+            if (jugadas.length < nJugadas)
+                jugadas = Arrays.copyOf(jugadas, Math.max(nJugadas, 2 * jugadas.length));
+            for (int k = 0; k < nJugadas; k++)
+                jugadas[k] = (int) leeVarint(lectura);
+            if (lectura.position() != fin)
+                throw new IOException("entrada mal formada");
+            return true;
+        }
+
+        /**
+         * Asegura que haya bytes en el buffer, leyendo más del fichero si hace falta.
+         *
+         * @param bytes bytes que hacen falta.
+         * @return FALSE si el fichero se acaba antes.
+         * @throws IOException si no se puede leer.
+         */
+        private boolean disponibles(int bytes) throws IOException {
+            if (lectura.remaining() >= bytes)
+                return true;
+            if (lectura.capacity() < bytes) {
+                ByteBuffer mayor = ByteBuffer.allocate(bytes);
+                mayor.put(lectura);
+                lectura = mayor;
+            } else {
+                lectura.compact();
+            }
+            while (lectura.position() < bytes) {
+                if (canal.read(lectura) < 0) {
+                    lectura.flip();
+                    return false;
+                }
+            }
+            lectura.flip();
+            return true;
+        }
+
+        /**
+         * @return semilla de la partida en curso.
+         */
+        public long getSemilla() {
+            return semilla;
+        }
+
+        /**
+         * @return configuración de la partida en curso.
+         */
+        public Configuracion getConfiguracion() {
+            return configuracion;
+        }
+
+        /**
+         * @return número de jugadas de la partida en curso.
+         */
+        public int getNJugadas() {
+            return nJugadas;
+        }
+
+        /**
+         * @param k número de jugada, de 0 a getNJugadas() - 1.
+         * @return casilla de la jugada, como x * alto + y.
+         */
+        public int getJugada(int k) {
+            return jugadas[k];
+        }
+
+        /**
+         * Reproduce la partida en curso: reparte el tablero de su semilla y
+         * hace sus jugadas, sin historial. El tablero se reutiliza de una
+         * partida a otra mientras no cambie la configuración: hay que
+         * copiarlo para conservarlo.
+         *
+         * @return tablero al final de la partida.
+         */
+        public Tablero reproduce() {
+            if (tablero == null) {
+                tablero = new Tablero(semilla, configuracion);
+                tablero.setHistorial(false);
+            } else {
+                tablero.reparte(semilla);
+            }
+            int alto = configuracion.getAlto();
+            for (int k = 0; k < nJugadas; k++)
+                tablero.clic(jugadas[k] / alto, jugadas[k] % alto);
+            return tablero;
+        }
+
+        /**
+         * Cierra el fichero.
+         *
+         * @throws IOException si falla al cerrar.
+         */
+        public void close() throws IOException {
+            canal.close();
+        }
+    }
+
+    /**
+     * Lee un entero sin signo en varint.
+     *
+     * @param buffer buffer.
+     * @return entero leído.
+     * @throws IOException si ocupa más de MAX_VARINT bytes.
+     */
+    static long leeVarint(ByteBuffer buffer) throws IOException {
+        long valor = 0;
+        for (int desplazamiento = 0; desplazamiento < 7 * MAX_VARINT; desplazamiento += 7) {
+            byte b = buffer.get();
+            valor |= (long) (b & 0x7F) << desplazamiento;
+            if (b >= 0)
+                return valor;
+        }
+        throw new IOException("varint demasiado largo");
+    }
+
+    /**
+     * Genera un diario de partidas al azar y lo reproduce, y da las
+     * partidas por segundo de cada cosa.
+     * <pre>
+     * DiarioPartidas genera fichero partidas ancho alto colores
+     * DiarioPartidas reproduce fichero
+     * </pre>
+     *
+     * @param args orden y argumentos.
+     * @throws IOException si no se puede escribir o leer el fichero.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || (args[0].equals("genera") && args.length < 6)) {
+            System.err.println("DiarioPartidas genera fichero partidas ancho alto colores");
+            System.err.println("DiarioPartidas reproduce fichero");
+            System.exit(1);
+        }
+        File fichero = new File(args[1]);
+        if (args[0].equals("genera")) {
+            int partidas = Integer.parseInt(args[2]);
+            Configuracion configuracion = new Configuracion(Integer.parseInt(args[3]), Integer.parseInt(args[4]),
+                    Integer.parseInt(args[5]));
+            Tablero tablero = new Tablero(0, configuracion);
+            tablero.setHistorial(false);
+            int alto = configuracion.getAlto();
+            int[] jugadas = new int[configuracion.getAncho() * alto];
+            colorjunction.solver.Azar azar = new colorjunction.solver.Azar(0);
+            long t0 = System.nanoTime();
+            try (DiarioPartidas diario = new DiarioPartidas(fichero)) {
+                for (int s = 0; s < partidas; s++) {
+                    tablero.reparte(s);
+                    int n = 0;
+                    int nGrupos;
+                    while ((nGrupos = tablero.getNGrupos()) > 0) {
+                        int celda = tablero.getRepresentanteGrupo(1 + azar.nextInt(nGrupos));
+                        jugadas[n++] = celda;
+                        tablero.clic(celda / alto, celda % alto);
+                    }
+                    diario.apunta(s, configuracion, jugadas, n);
+                }
+            }
+            System.out.println("generadas " + partidas + " partidas, "
+                    + partidas * 1000000000L / Math.max(1, System.nanoTime() - t0) + " partidas/s, "
+                    + fichero.length() + " bytes");
+        } else if (args[0].equals("reproduce")) {
+            long t0 = System.nanoTime();
+            long partidas = 0;
+            long puntos = 0;
+            try (Lector lector = new Lector(fichero)) {
+                while (lector.siguiente()) {
+                    puntos += lector.reproduce().getPuntos();
+                    partidas++;
+                }
+            }
+            System.out.println("reproducidas " + partidas + " partidas (" + puntos + " puntos), "
+                    + partidas * 1000000000L / Math.max(1, System.nanoTime() - t0) + " partidas/s");
+        } else {
+            throw new IllegalArgumentException(args[0]);
+        }
+    }
+}
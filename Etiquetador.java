@@ -0,0 +1,331 @@
+package colorjunction;
+
+import java.util.Arrays;
+
+/**
+ * Etiquetado de los grupos de un tablero, sin recursión.
+ * Recorre las casillas en el mismo orden que siempre ha usado Tablero
+ * (columnas de izquierda a derecha; en cada columna, de abajo arriba)
+ * y abre un grupo nuevo en cada casilla sin grupo cuya vecina de la
+ * izquierda o de encima tenga el mismo color. El grupo se rellena con una
+ * lista explícita de casillas pendientes, de modo que cada casilla se
+ * visita una sola vez y la pila de llamadas no crece con el tamaño del grupo.
+ * Las fichas aisladas y las casillas vacías quedan en el grupo 0.
+ * <p>
+ * Como subproducto, se conoce el tamaño, el color y la casilla de arranque
+ * de cada grupo, y la lista de sus casillas: las de todos los grupos van
+ * seguidas en un solo array, en orden de grupo.
+ * <p>
+ * Tras una jugada, reetiqueta() sólo recorre las columnas afectadas: los
+ * grupos abiertos más a la izquierda conservan su número y sus casillas.
+ * Las fichas se leen columna a columna, columnas[x][y], como las guarda Tablero.
+ * Las casillas se numeran como en Tablero: columna a columna, x * alto + y.
+ *
+ * @author Javier López Medina
+ * @version 1.0
+ */
+class Etiquetador {
+    /**
+     * dimensiones del tablero
+     */
+    private final int ancho;
+    private final int alto;
+    /**
+     * a que grupo pertenece cada casilla; 0 si a ninguno
+     */
+    private final int[] grupos;
+    /**
+     * casillas de cada grupo, una tras otra: las del grupo g empiezan en
+     * inicios[g]; al rellenar un grupo sirve también de lista de pendientes
+     */
+    private final int[] miembros;
+    /**
+     * posición en miembros de la primera casilla de cada grupo (índice 0 sin uso)
+     */
+    private final int[] inicios;
+    /**
+     * número de fichas de cada grupo (índice 0 sin uso)
+     */
+    private final int[] tamanos;
+    /**
+     * índice de color de cada grupo (índice 0 sin uso)
+     */
+    private final byte[] colores;
+    /**
+     * casilla en la que se abrió cada grupo (índice 0 sin uso)
+     */
+    private final int[] arranques;
+    /**
+     * número de grupos
+     */
+    private int nGrupos;
+    /**
+     * marcas de aisla(): cada llamada marca las casillas que visita con -sello
+     */
+    private int sello;
+
+    /**
+     * Constructor.
+     *
+     * @param ancho número de casillas a lo ancho.
+     * @param alto  número de casillas a lo alto.
+     */
+    Etiquetador(int ancho, int alto) {
+        this.ancho = ancho;
+        this.alto = alto;
+        int n = ancho * alto;
+        // cada grupo tiene al menos 2 fichas
+        int maxGrupos = n / 2 + 1;
+        grupos = new int[n];
+        miembros = new int[n];
+        inicios = new int[maxGrupos];
+        tamanos = new int[maxGrupos];
+        colores = new byte[maxGrupos];
+        arranques = new int[maxGrupos];
+    }
+
+    /**
+     * Etiqueta todo el tablero.
+     *
+     * @param columnas índice de color de cada casilla, columnas[x][y]; Tablero.VACIA si no hay ficha.
+     * @return número de grupos encontrados.
+     */
+    int etiqueta(byte[][] columnas) {
+        Arrays.fill(grupos, 0);
+        nGrupos = 0;
+        recorre(columnas, 0);
+        return nGrupos;
+    }
+
+    /**
+     * Vuelve a etiquetar tras una jugada que no ha tocado las columnas
+     * a la izquierda de desdeColumna. Las etiquetas actuales deben ser
+     * las del tablero anterior a la jugada.
+     * <p>
+     * Los grupos que no llegaban a la columna desdeColumna - 1 no cambian.
+     * Los que llegaban se abrieron, como pronto, en la columna de arranque
+     * del más a la izquierda de ellos; los nuevos, como mucho una columna
+     * antes. Se conservan los grupos abiertos antes de esa columna y se
+     * repite el recorrido desde ella, con la misma numeración que daría
+     * etiqueta().
+     *
+     * @param columnas     índice de color de cada casilla, ya tras la jugada.
+     * @param desdeColumna primera columna que ha cambiado.
+     * @return número de grupos encontrados.
+     */
+    int reetiqueta(byte[][] columnas, int desdeColumna) {
+        int limite = Math.max(0, desdeColumna - 1);
+        int columna = limite;
+        for (int i = limite * alto; i < grupos.length && columna > 0; i++) {
+            int g = grupos[i];
+            if (g != 0)
+                columna = Math.min(columna, arranques[g] / alto - 1);
+        }
+        columna = Math.max(0, columna);
+        int conservados = primerGrupoDesde(columna) - 1;
+        for (int i = Math.max(0, columna - 1) * alto; i < grupos.length; i++)
+            if (grupos[i] > conservados)
+                grupos[i] = 0;
+        nGrupos = conservados;
+        recorre(columnas, columna);
+        return nGrupos;
+    }
+
+    /**
+     * Busca el primer grupo abierto en una columna dada o más a la derecha.
+     * Los grupos se numeran en orden de recorrido, así que basta una
+     * búsqueda binaria sobre sus casillas de arranque.
+     *
+     * @param columna columna desde la que se busca.
+     * @return número del primer grupo abierto desde esa columna; nGrupos + 1 si no hay.
+     */
+    private int primerGrupoDesde(int columna) {
+        int desde = columna * alto;
+        int lo = 1;
+        int hi = nGrupos + 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (arranques[mid] < desde)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Recorre el tablero desde una columna, abriendo grupos nuevos
+     * a continuación de los que ya hay.
+     *
+     * @param columnas     índice de color de cada casilla.
+     * @param desdeColumna primera columna que se recorre.
+     */
+    private void recorre(byte[][] columnas, int desdeColumna) {
+        for (int x = desdeColumna; x < ancho; x++) {
+            byte[] columna = columnas[x];
+            byte[] izquierda = x > 0 ? columnas[x - 1] : null;
+            for (int y = alto - 1; y >= 0; y--) {
+                int i = x * alto + y;
+                byte color = columna[y];
+                if (color == Tablero.VACIA || grupos[i] != 0)
+                    continue;
+                if ((izquierda != null && izquierda[y] == color) || (y > 0 && columna[y - 1] == color))
+                    rellena(columnas, i, ++nGrupos);
+            }
+        }
+    }
+
+    /**
+     * Adjudica un grupo a todas las casillas unidas a la de arranque
+     * con su mismo color.
+     *
+     * @param columnas índice de color de cada casilla.
+     * @param arranque casilla desde la que se rellena.
+     * @param grupo    número de grupo que se adjudica.
+     */
+    private void rellena(byte[][] columnas, int arranque, int grupo) {
+        byte color = columnas[arranque / alto][arranque % alto];
+        int inicio = grupo == 1 ? 0 : inicios[grupo - 1] + tamanos[grupo - 1];
+        int fin = inicio;
+        miembros[fin++] = arranque;
+        grupos[arranque] = grupo;
+        for (int lee = inicio; lee < fin; lee++) {
+            int i = miembros[lee];
+            int x = i / alto;
+            int y = i - x * alto;
+            byte[] columna = columnas[x];
+            if (x > 0 && columnas[x - 1][y] == color && grupos[i - alto] == 0) {
+                grupos[i - alto] = grupo;
+                miembros[fin++] = i - alto;
+            }
+            if (x + 1 < ancho && columnas[x + 1][y] == color && grupos[i + alto] == 0) {
+                grupos[i + alto] = grupo;
+                miembros[fin++] = i + alto;
+            }
+            if (y > 0 && columna[y - 1] == color && grupos[i - 1] == 0) {
+                grupos[i - 1] = grupo;
+                miembros[fin++] = i - 1;
+            }
+            if (y + 1 < alto && columna[y + 1] == color && grupos[i + 1] == 0) {
+                grupos[i + 1] = grupo;
+                miembros[fin++] = i + 1;
+            }
+        }
+        inicios[grupo] = inicio;
+        tamanos[grupo] = fin - inicio;
+        colores[grupo] = color;
+        arranques[grupo] = arranque;
+    }
+
+    /**
+     * Busca sólo el grupo de una casilla, recorriendo sus fichas y sin
+     * etiquetar el resto del tablero: en un tablero grande es mucho más
+     * barato que reetiqueta(). El grupo queda como el grupo 1 (getInicio(1),
+     * getTamano(1)...), y las demás etiquetas dejan de valer hasta el
+     * siguiente etiqueta(). Las casillas visitadas se marcan con un sello
+     * negativo distinto en cada llamada, para no tener que borrar nada.
+     *
+     * @param columnas índice de color de cada casilla.
+     * @param celda    casilla (x * alto + y).
+     * @return 1 si la casilla es de un grupo; 0 si está vacía o su ficha está aislada.
+     */
+    int aisla(byte[][] columnas, int celda) {
+        byte color = columnas[celda / alto][celda % alto];
+        if (color == Tablero.VACIA)
+            return 0;
+        if (sello == Integer.MAX_VALUE) {
+            Arrays.fill(grupos, 0);
+            sello = 0;
+        }
+        int marca = -(++sello);
+        int fin = 0;
+        miembros[fin++] = celda;
+        grupos[celda] = marca;
+        for (int lee = 0; lee < fin; lee++) {
+            int i = miembros[lee];
+            int x = i / alto;
+            int y = i - x * alto;
+            byte[] columna = columnas[x];
+            if (x > 0 && columnas[x - 1][y] == color && grupos[i - alto] != marca) {
+                grupos[i - alto] = marca;
+                miembros[fin++] = i - alto;
+            }
+            if (x + 1 < ancho && columnas[x + 1][y] == color && grupos[i + alto] != marca) {
+                grupos[i + alto] = marca;
+                miembros[fin++] = i + alto;
+            }
+            if (y > 0 && columna[y - 1] == color && grupos[i - 1] != marca) {
+                grupos[i - 1] = marca;
+                miembros[fin++] = i - 1;
+            }
+            if (y + 1 < alto && columna[y + 1] == color && grupos[i + 1] != marca) {
+                grupos[i + 1] = marca;
+                miembros[fin++] = i + 1;
+            }
+        }
+        if (fin < 2)
+            return 0;
+        inicios[1] = 0;
+        tamanos[1] = fin;
+        colores[1] = color;
+        arranques[1] = celda;
+        return 1;
+    }
+
+    /**
+     * @return número de grupos.
+     */
+    int getNGrupos() {
+        return nGrupos;
+    }
+
+    /**
+     * @param i casilla (x * alto + y).
+     * @return grupo al que pertenece la casilla; 0 si a ninguno.
+     */
+    int getGrupo(int i) {
+        return grupos[i];
+    }
+
+    /**
+     * @param grupo número de grupo, entre 1 y getNGrupos().
+     * @return número de fichas del grupo.
+     */
+    int getTamano(int grupo) {
+        return tamanos[grupo];
+    }
+
+    /**
+     * @param grupo número de grupo, entre 1 y getNGrupos().
+     * @return índice de color de las fichas del grupo.
+     */
+    int getColor(int grupo) {
+        return colores[grupo];
+    }
+
+    /**
+     * @param grupo número de grupo, entre 1 y getNGrupos().
+     * @return casilla (x * alto + y) en la que se abrió el grupo.
+     */
+    int getArranque(int grupo) {
+        return arranques[grupo];
+    }
+
+    /**
+     * @param grupo número de grupo, entre 1 y getNGrupos().
+     * @return posición en getMiembro() de la primera casilla del grupo.
+     */
+    int getInicio(int grupo) {
+        return inicios[grupo];
+    }
+
+    /**
+     * Las casillas del grupo g son getMiembro(getInicio(g)) .. getMiembro(getInicio(g) + getTamano(g) - 1).
+     *
+     * @param posicion posición en la lista de casillas de los grupos.
+     * @return casilla (x * alto + y).
+     */
+    int getMiembro(int posicion) {
+        return miembros[posicion];
+    }
+}
@@ -0,0 +1,199 @@
+package colorjunction;
+
+import colorjunction.conf.Configuracion;
+import colorjunction.solver.Azar;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.stream.LongStream;
+
+/**
+ * Programa de consola que recorre un intervalo de semillas buscando
+ * tableros interesantes para una configuración: con muchos o pocos grupos,
+ * con un grupo muy grande, o que se pueden despejar del todo.
+ * <p>
+ * Las semillas se reparten entre los procesadores con un LongStream
+ * paralelo, por tramos. Cada hilo reutiliza su propio tablero con
+ * Tablero.reparte(), y calcula lo que mira de cada tablero sin crear
+ * Strings ni reservar memoria. Las semillas que cumplen los criterios se
+ * escriben en orden, una por línea, con el número de grupos y el tamaño
+ * del mayor. Al final de cada tramo se informa de los tableros por segundo.
+ * <pre>
+ * ExploraSemillas ancho alto colores desde hasta [opciones]
+ *   -grupos min max    número de grupos entre min y max
+ *   -mayor min         el grupo mayor tiene al menos min fichas
+ *   -despejable n      alguna de n partidas al azar despeja el tablero
+ *   -salida fichero    dónde se escriben las semillas; si no, en la consola
+ * </pre>
+ *
+ * @author Javier López Medina
+ * @version 1.0
+ */
+public class ExploraSemillas {
+    /**
+     * semillas por tramo
+     */
+    private static final int TRAMO = 1 << 20;
+
+    /**
+     * configuración de los tableros
+     */
+    private final Configuracion configuracion;
+    /**
+     * criterios: número de grupos, tamaño del grupo mayor y partidas al azar
+     * para intentar despejar el tablero (0 si no se intenta)
+     */
+    private int minGrupos = 0;
+    private int maxGrupos = Integer.MAX_VALUE;
+    private int minMayor = 0;
+    private int partidas = 0;
+    /**
+     * tableros y generador de cada hilo
+     */
+    private final ThreadLocal<Explorador> exploradores = new ThreadLocal<Explorador>() {
+        protected Explorador initialValue() {
+            return new Explorador();
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param configuracion configuración de los tableros.
+     */
+    public ExploraSemillas(Configuracion configuracion) {
+        this.configuracion = configuracion;
+    }
+
+    /**
+     * Recorre las semillas de un intervalo.
+     *
+     * @param desde  primera semilla.
+     * @param hasta  semilla siguiente a la última.
+     * @param salida donde se escriben las semillas que cumplen los criterios.
+     * @return número de semillas que cumplen los criterios.
+     * @throws IOException si no se puede escribir.
+     */
+    public long explora(long desde, long hasta, Writer salida) throws IOException {
+        long inicio = System.nanoTime();
+        long encontradas = 0;
+        for (long tramo = desde; tramo < hasta; tramo += Math.min(TRAMO, hasta - tramo)) {
+            long fin = tramo + Math.min(TRAMO, hasta - tramo);
+            long[] semillas = LongStream.range(tramo, fin).parallel().filter(this::cumple).toArray();
+            Explorador explorador = exploradores.get();
+            for (long semilla : semillas) {
+                explorador.tablero.reparte(semilla);
+                salida.write(semilla + "\t" + explorador.tablero.getNGrupos() + "\t"
+                        + explorador.tablero.getTamanoGrupo(explorador.tablero.getGrupoMayor()) + "\n");
+            }
+            encontradas += semillas.length;
+            long ns = Math.max(1, System.nanoTime() - inicio);
+            System.err.println((fin - desde) + " tableros, " + encontradas + " encontrados, "
+                    + (long) ((fin - desde) * 1e9 / ns) + " tableros/s");
+        }
+        salida.flush();
+        return encontradas;
+    }
+
+    /**
+     * Mira si el tablero de una semilla cumple los criterios.
+     *
+     * @param semilla semilla.
+     * @return TRUE si cumple todos los criterios.
+     */
+    private boolean cumple(long semilla) {
+        Explorador explorador = exploradores.get();
+        Tablero tablero = explorador.tablero;
+        tablero.reparte(semilla);
+        int nGrupos = tablero.getNGrupos();
+        if (nGrupos < minGrupos || nGrupos > maxGrupos)
+            return false;
+        if (minMayor > 0 && (nGrupos == 0 || tablero.getTamanoGrupo(tablero.getGrupoMayor()) < minMayor))
+            return false;
+        return partidas == 0 || explorador.despeja(semilla);
+    }
+
+    /**
+     * Lo que usa cada hilo, para no reservar memoria por tablero.
+     */
+    private class Explorador {
+        /**
+         * tablero de la semilla en curso
+         */
+        final Tablero tablero = new Tablero(0, configuracion);
+        /**
+         * tablero en el que se juegan las partidas al azar
+         */
+        final Tablero partida = new Tablero(0, configuracion);
+        /**
+         * generador de las partidas al azar
+         */
+        final Azar azar = new Azar(0);
+
+        Explorador() {
+            tablero.setHistorial(false);
+            partida.setHistorial(false);
+        }
+
+        /**
+         * Juega partidas al azar desde el tablero en curso hasta despejarlo.
+         *
+         * @param semilla semilla del tablero, que también fija las partidas.
+         * @return TRUE si alguna partida lo ha despejado.
+         */
+        boolean despeja(long semilla) {
+            azar.reinicia(semilla);
+            int alto = tablero.getAlto();
+            for (int k = 0; k < partidas; k++) {
+                partida.copiaDe(tablero);
+                int nGrupos;
+                while ((nGrupos = partida.getNGrupos()) > 0) {
+                    int celda = partida.getRepresentanteGrupo(1 + azar.nextInt(nGrupos));
+                    partida.clic(celda / alto, celda % alto);
+                }
+                if (partida.getNFichas() == 0)
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Programa principal.
+     *
+     * @param args ancho, alto, colores, desde, hasta y opciones (ver la clase).
+     * @throws IOException si no se puede escribir la salida.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 5) {
+            System.err.println("ExploraSemillas ancho alto colores desde hasta"
+                    + " [-grupos min max] [-mayor min] [-despejable partidas] [-salida fichero]");
+            System.exit(1);
+        }
+        Configuracion configuracion = new Configuracion(Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+                Integer.parseInt(args[2]));
+        ExploraSemillas exploracion = new ExploraSemillas(configuracion);
+        Writer salida = null;
+        for (int i = 5; i < args.length; i++) {
+            if (args[i].equals("-grupos")) {
+                exploracion.minGrupos = Integer.parseInt(args[++i]);
+                exploracion.maxGrupos = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-mayor")) {
+                exploracion.minMayor = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-despejable")) {
+                exploracion.partidas = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-salida")) {
+                salida = new BufferedWriter(new FileWriter(args[++i]));
+            } else {
+                throw new IllegalArgumentException(args[i]);
+            }
+        }
+        if (salida == null)
+            salida = new BufferedWriter(new OutputStreamWriter(System.out));
+        exploracion.explora(Long.parseLong(args[3]), Long.parseLong(args[4]), salida);
+        salida.close();
+    }
+}
@@ -3,6 +3,8 @@ package colorjunction;
 import colorjunction.conf.Configuracion;
 import colorjunction.conf.FicheroConfiguracion;
 import colorjunction.conf.PanelConfiguracion;
+import colorjunction.solver.BusquedaHaz;
+import colorjunction.solver.Solucion;
 import log.Logger;
 
 import javax.swing.*;
@@ -10,6 +12,17 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Graphical User Interface. Interfaz gráfica para jugar.
@@ -31,16 +44,58 @@ public class GUI
      * Tamaño de las cendas con fichas.
      */
     private static final int CELDA = 30;
+    /**
+     * Lado máximo del dibujo del tablero: en tableros grandes las celdas
+     * se encogen, hasta 1 pixel, y lo que no cabe se ve con barras de desplazamiento.
+     */
+    private static final int LADO_MAXIMO = 800;
+    /**
+     * Celdas más pequeñas que esto se pintan como pixels de una imagen, sin redondear.
+     */
+    private static final int CELDA_MINIMA_REDONDA = 6;
+    /**
+     * Casillas a partir de las cuales no se trazan la firma y el mapa de grupos.
+     */
+    private static final int MAX_CASILLAS_TRAZA = 20 * 20;
+    /**
+     * Casillas a partir de las cuales no se buscan pistas: la búsqueda no
+     * llegaría a ninguna jugada buena en su tiempo.
+     */
+    private static final int MAX_CASILLAS_PISTA = 200 * 200;
+    /**
+     * Fichero en el que se apuntan las partidas jugadas (ver DiarioPartidas).
+     */
+    private static final String DIARIO_FILE = "colorjunction.partidas";
+    /**
+     * Fichero con los mejores resultados (ver Clasificacion).
+     */
+    private static final String CLASIFICACION_FILE = "colorjunction.clasificacion";
+    /**
+     * Resultados que se guardan de cada tablero y de cada configuración.
+     */
+    private static final int MEJORES = 10;
     /**
      * Espacio entre celdas.
      */
     private static final int BORDE = 1;
+    /**
+     * Tiempo máximo de búsqueda de una pista, en milisegundos.
+     */
+    private static final int TIEMPO_PISTA = 1000;
+    /**
+     * Ancho del haz con el que se busca una pista.
+     */
+    private static final int HAZ_PISTA = 50;
 
     /**
      * coordenadas de extremo superior izquierdo (NorthWest)
      */
     private int nwx = MARGEN;
     private int nwy = MARGEN;
+    /**
+     * Tamaño de las celdas del tablero en curso; CELDA salvo en tableros grandes.
+     */
+    private int celda = CELDA;
 
     /**
      * Configuración que estamos usando en el juego en curso.
@@ -58,6 +113,52 @@ public class GUI
      * Tablero del juego en curso.
      */
     private Tablero tablero;
+    /**
+     * Casillas en las que se ha hecho clic en el juego en curso, como x * alto + y:
+     * las nJugadas primeras están en el tablero; las siguientes, las que se pueden
+     * rehacer, mientras el historial del tablero las conserve.
+     */
+    private int[] jugadas = new int[64];
+    private int nJugadas;
+    /**
+     * Diario en el que se apuntan las partidas; NULL si aún no se ha abierto.
+     */
+    private DiarioPartidas diario;
+    /**
+     * Mejores resultados; NULL si no se ha podido abrir el fichero.
+     */
+    private Clasificacion clasificacion;
+
+    /**
+     * Con celdas pequeñas, imagen con un pixel por casilla y sus pixels;
+     * se reutiliza de un repintado a otro.
+     */
+    private BufferedImage imagen;
+    private int[] pixels;
+
+    /**
+     * Hilo en el que se buscan las pistas, para no bloquear la interfaz.
+     */
+    private final ExecutorService buscadorPistas = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread hilo = new Thread(r, "pistas");
+            hilo.setDaemon(true);
+            return hilo;
+        }
+    });
+    /**
+     * Búsqueda de pista en curso; NULL si no hay.
+     */
+    private Future<?> busquedaPista;
+    /**
+     * Cuántas búsquedas de pista se han lanzado: una pista que llega
+     * tarde, de un tablero que ya ha cambiado, se descarta.
+     */
+    private int versionPista;
+    /**
+     * Casilla del grupo sugerido, empaquetada como x * alto + y; -1 si no hay pista.
+     */
+    private int pista = -1;
 
     /**
      * Para informar de los puntos conseguidos hasta el momento.
@@ -79,6 +180,18 @@ public class GUI
      * Para repetir el juego en curso desde el principio.
      */
     private Action replayAction;
+    /**
+     * Para deshacer la última jugada.
+     */
+    private Action undoAction;
+    /**
+     * Para rehacer la última jugada deshecha.
+     */
+    private Action redoAction;
+    /**
+     * Para activar o desactivar las pistas.
+     */
+    private Action hintAction;
     /**
      * Para cambiar la configuración del juego.
      * Se aplicará al juego siguiente.
@@ -97,10 +210,17 @@ public class GUI
         configuracionActual = configuracionSiguiente;
         semillaActual = System.currentTimeMillis();
         tablero = new Tablero(semillaActual, configuracionActual);
-        LOGGER.info(tablero.getFirma());
-        LOGGER.info(tablero.getMapaGrupos());
+        trazaTablero();
+        try {
+            clasificacion = new Clasificacion(new File(CLASIFICACION_FILE), MEJORES);
+        } catch (IOException e) {
+            LOGGER.config("Problema con la clasificación: " + e.getMessage());
+        }
         startAction = new StartAction();
         replayAction = new ReplayAction();
+        undoAction = new UndoAction();
+        redoAction = new RedoAction();
+        hintAction = new HintAction();
         configurationAction = new ConfigurationAction();
         helpAction = new HelpAction();
     }
@@ -125,6 +245,13 @@ public class GUI
         this();
         frame.setJMenuBar(mkMenuBar());
         setContents(frame.getContentPane());
+        frame.addWindowListener(new WindowAdapter() {
+            public void windowClosing(WindowEvent e) {
+                guardaPartida();
+                cierraDiario();
+                cierraClasificacion();
+            }
+        });
     }
 
     /**
@@ -138,6 +265,9 @@ public class GUI
         menuBar.add(menu1);
         menu1.add(startAction);
         menu1.add(replayAction);
+        menu1.add(undoAction);
+        menu1.add(redoAction);
+        menu1.add(new JCheckBoxMenuItem(hintAction));
 
         JMenu menu2 = new JMenu("configuración");
         menu2.add(configurationAction);
@@ -156,10 +286,12 @@ public class GUI
      * @param container contenedor en donde se coloca.
      */
     private void setContents(Container container) {
-        int ANCHO = MARGEN + tablero.getAncho() * CELDA + MARGEN;
-        int ALTO = MARGEN + tablero.getAlto() * CELDA + MARGEN;
-        setPreferredSize(new Dimension(ANCHO, ALTO));
-        container.add(this, BorderLayout.CENTER);
+        dimensiona();
+        JScrollPane scroll = new JScrollPane(this);
+        Dimension dimension = getPreferredSize();
+        scroll.getViewport().setPreferredSize(new Dimension(Math.min(dimension.width, MARGEN + LADO_MAXIMO + MARGEN),
+                Math.min(dimension.height, MARGEN + LADO_MAXIMO + MARGEN)));
+        container.add(scroll, BorderLayout.CENTER);
         setFocusable(true);
         requestFocusInWindow();
         addMouseListener(new MyMouseListener());
@@ -176,6 +308,17 @@ public class GUI
         presentaEstado();
     }
 
+    /**
+     * Ajusta el tamaño de las celdas y del dibujo al tablero en curso.
+     */
+    private void dimensiona() {
+        int lado = Math.max(tablero.getAncho(), tablero.getAlto());
+        celda = Math.max(1, Math.min(CELDA, LADO_MAXIMO / lado));
+        setPreferredSize(new Dimension(MARGEN + tablero.getAncho() * celda + MARGEN,
+                MARGEN + tablero.getAlto() * celda + MARGEN));
+        revalidate();
+    }
+
     /**
      * Llamada por java para pintarse en la pantalla.
      *
@@ -191,21 +334,74 @@ public class GUI
      * @param g sistema gráfico 2D para dibujarse.
      */
     public void update(Graphics g) {
+        Rectangle zona = g.getClipBounds();
+        if (zona == null)
+            zona = new Rectangle(0, 0, getWidth(), getHeight());
         g.setColor(Color.WHITE);
-        g.fillRect(0, 0, getWidth(), getHeight());
-
-        for (int x = 0; x < tablero.getAncho(); x++)
-            for (int y = 0; y < tablero.getAlto(); y++) {
-                Color color = tablero.getCasilla(x, y);
-                if (color == null)
-                    pintaCasilla(g, x, y, Color.WHITE);
-                else
-                    pintaCasilla(g, x, y, color);
-            }
+        g.fillRect(zona.x, zona.y, zona.width, zona.height);
+
+        // sólo las casillas que se ven en la zona que hay que repintar
+        int ancho = tablero.getAncho();
+        int alto = tablero.getAlto();
+        int x0 = Math.max(0, (zona.x - nwx) / celda);
+        int x1 = Math.min(ancho, (zona.x + zona.width - nwx) / celda + 1);
+        int y0 = Math.max(0, (zona.y - nwy) / celda);
+        int y1 = Math.min(alto, (zona.y + zona.height - nwy) / celda + 1);
+        if (x0 < x1 && y0 < y1) {
+            if (celda < CELDA_MINIMA_REDONDA)
+                pintaImagen(g, x0, x1, y0, y1);
+            else
+                for (int x = x0; x < x1; x++)
+                    for (int y = y0; y < y1; y++) {
+                        int indice = tablero.getIndiceColor(x, y);
+                        if (indice == Tablero.VACIA)
+                            pintaCasilla(g, x, y, Color.WHITE);
+                        else
+                            pintaCasilla(g, x, y, configuracionActual.getColor(indice));
+                    }
+        }
+        if (pista >= 0) {
+            int grupo = tablero.getGrupo(pista / alto, pista % alto);
+            if (grupo > 0)
+                for (Coordenadas c : tablero.getFichasDelGrupo(grupo))
+                    marcaCasilla(g, c.getX(), c.getY());
+        }
 //        pintaCasilla(g, 0, 0, Color.BLACK);
 //        pintaCasilla(g, 0, 1, Color.LIGHT_GRAY);
     }
 
+    /**
+     * Pinta un rectángulo de casillas como pixels de una imagen, que se
+     * escala al tamaño de las celdas: para celdas pequeñas, en las que no se
+     * aprecian los bordes redondeados, y en tableros grandes, en los que
+     * pintar casilla a casilla es demasiado lento.
+     *
+     * @param g  entorno gráfico en el que se dibuja.
+     * @param x0 primera columna.
+     * @param x1 columna siguiente a la última.
+     * @param y0 primera fila.
+     * @param y1 fila siguiente a la última.
+     */
+    private void pintaImagen(Graphics g, int x0, int x1, int y0, int y1) {
+        int ancho = tablero.getAncho();
+        int alto = tablero.getAlto();
+        if (imagen == null || imagen.getWidth() != ancho || imagen.getHeight() != alto) {
+            imagen = new BufferedImage(ancho, alto, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) imagen.getRaster().getDataBuffer()).getData();
+        }
+        int[] paleta = new int[tablero.getNColores()];
+        for (int c = 0; c < paleta.length; c++)
+            paleta[c] = configuracionActual.getColor(c).getRGB();
+        int blanco = Color.WHITE.getRGB();
+        for (int x = x0; x < x1; x++)
+            for (int y = y0; y < y1; y++) {
+                int indice = tablero.getIndiceColor(x, y);
+                pixels[y * ancho + x] = indice == Tablero.VACIA ? blanco : paleta[indice];
+            }
+        g.drawImage(imagen, nwx + x0 * celda, nwy + y0 * celda, nwx + x1 * celda, nwy + y1 * celda,
+                x0, y0, x1, y1, null);
+    }
+
     /**
      * LLeva el contenido de una casilla a la ventana.
      *
@@ -215,21 +411,185 @@ public class GUI
      * @param color color de la casilla.
      */
     private void pintaCasilla(Graphics g, int x, int y, Color color) {
-        int gx = nwx + x * CELDA + BORDE;
-        int gy = nwy + y * CELDA + BORDE;
+        int gx = nwx + x * celda + BORDE;
+        int gy = nwy + y * celda + BORDE;
         g.setColor(color);
         g.fillRoundRect(gx + BORDE, gy + BORDE,
-                CELDA - 2 * BORDE, CELDA - 2 * BORDE,
+                celda - 2 * BORDE, celda - 2 * BORDE,
+                10, 10);
+    }
+
+    /**
+     * Marca una casilla del grupo sugerido por la pista.
+     *
+     * @param g entorno gráfico en el que se dibuja.
+     * @param x coordenada X de la casilla (arriba a la izquierda).
+     * @param y coordenada Y de la casilla (arriba a la izquierda).
+     */
+    private void marcaCasilla(Graphics g, int x, int y) {
+        g.setColor(Color.BLACK);
+        if (celda < CELDA_MINIMA_REDONDA) {
+            g.fillRect(nwx + x * celda, nwy + y * celda, celda, celda);
+            return;
+        }
+        int gx = nwx + x * celda + BORDE;
+        int gy = nwy + y * celda + BORDE;
+        g.drawRoundRect(gx + BORDE, gy + BORDE,
+                celda - 2 * BORDE - 1, celda - 2 * BORDE - 1,
                 10, 10);
     }
 
     /**
-     * Presenta el estado del juego: puntos, fichas y pasos.
+     * Repinta las columnas del tablero desde una dada hacia la derecha;
+     * las de la izquierda no han cambiado.
+     *
+     * @param columna primera columna que ha cambiado.
+     */
+    private void repintaDesde(int columna) {
+        repaint(nwx + columna * celda, 0, getWidth(), getHeight());
+    }
+
+    /**
+     * Traza la firma y el mapa de grupos del tablero,
+     * si la traza de nivel FINE va a alguna parte y el tablero no es grande.
+     * Las partidas quedan en el diario: esta traza es sólo para depurar.
+     */
+    private void trazaTablero() {
+        if (tablero.getAncho() * tablero.getAlto() <= MAX_CASILLAS_TRAZA && LOGGER.inAny(Logger.FINE)) {
+            LOGGER.fine(tablero.getFirma());
+            LOGGER.fine(tablero.getMapaGrupos());
+        }
+    }
+
+    /**
+     * Apunta una jugada del juego en curso, encima de las que se podían rehacer.
+     *
+     * @param x coordenada X de la casilla.
+     * @param y coordenada Y de la casilla.
+     */
+    private void apuntaJugada(int x, int y) {
+        if (nJugadas == jugadas.length)
+            jugadas = Arrays.copyOf(jugadas, 2 * jugadas.length);
+        jugadas[nJugadas++] = x * tablero.getAlto() + y;
+    }
+
+    /**
+     * Guarda en el diario el juego en curso, si se ha jugado algo, apunta
+     * sus puntos en la clasificación y empieza a apuntar de nuevo. Si no se
+     * puede escribir el diario o la clasificación, se traza y se sigue jugando.
+     */
+    private void guardaPartida() {
+        int n = nJugadas;
+        nJugadas = 0;
+        if (n == 0)
+            return;
+        try {
+            if (diario == null)
+                diario = new DiarioPartidas(new File(DIARIO_FILE));
+            diario.apunta(semillaActual, configuracionActual, jugadas, n);
+            diario.vuelca();
+        } catch (IOException e) {
+            LOGGER.config("Problema con el diario de partidas: " + e.getMessage());
+        }
+        if (clasificacion == null)
+            return;
+        try {
+            clasificacion.apunta(configuracionActual, semillaActual, tablero.getPuntos(), tablero.getPasos());
+        } catch (IOException e) {
+            LOGGER.config("Problema con la clasificación: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Cierra el diario, si está abierto.
+     */
+    private void cierraDiario() {
+        if (diario == null)
+            return;
+        try {
+            diario.close();
+        } catch (IOException e) {
+            LOGGER.config("Problema con el diario de partidas: " + e.getMessage());
+        }
+        diario = null;
+    }
+
+    /**
+     * Cierra la clasificación, si está abierta.
+     */
+    private void cierraClasificacion() {
+        if (clasificacion == null)
+            return;
+        try {
+            clasificacion.close();
+        } catch (IOException e) {
+            LOGGER.config("Problema con la clasificación: " + e.getMessage());
+        }
+        clasificacion = null;
+    }
+
+    /**
+     * @return TRUE si el tablero en curso no es demasiado grande para buscar pistas.
+     */
+    private boolean admitePistas() {
+        return tablero.getAncho() * tablero.getAlto() <= MAX_CASILLAS_PISTA;
+    }
+
+    /**
+     * El tablero ha cambiado: olvida la pista que hubiera y, si las pistas
+     * están activas, busca otra en segundo plano sobre una copia del tablero.
+     * Cuando la encuentra, la marca desde el hilo de Swing, salvo que el
+     * tablero haya vuelto a cambiar.
+     */
+    private void renuevaPista() {
+        versionPista++;
+        if (busquedaPista != null) {
+            busquedaPista.cancel(true);
+            busquedaPista = null;
+        }
+        if (pista >= 0) {
+            pista = -1;
+            repaint();
+        }
+        hintAction.setEnabled(admitePistas());
+        if (!admitePistas() || !Boolean.TRUE.equals(hintAction.getValue(Action.SELECTED_KEY)))
+            return;
+        // la copia comparte las columnas, que ya no escribe ninguno de los dos tableros
+        final Tablero copia = new Tablero(tablero);
+        final int version = versionPista;
+        busquedaPista = buscadorPistas.submit(new Runnable() {
+            public void run() {
+                final Solucion solucion = new BusquedaHaz(HAZ_PISTA, TIEMPO_PISTA).resuelve(copia);
+                if (Thread.currentThread().isInterrupted() || solucion.getNJugadas() == 0)
+                    return;
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        if (version != versionPista)
+                            return;
+                        busquedaPista = null;
+                        pista = solucion.getCelda(0);
+                        LOGGER.fine("pista: " + solucion);
+                        repaint();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Presenta el estado del juego: puntos, con el récord del tablero si lo hay, fichas y pasos.
      */
     private void presentaEstado() {
-        puntosLabel.setText(String.format("puntos: %d", tablero.getPuntos()));
+        Clasificacion.Resultado record = clasificacion == null ? null
+                : clasificacion.mejor(configuracionActual, semillaActual);
+        if (record == null)
+            puntosLabel.setText(String.format("puntos: %d", tablero.getPuntos()));
+        else
+            puntosLabel.setText(String.format("puntos: %d (récord: %d)", tablero.getPuntos(), record.getPuntos()));
         fichasLabel.setText(String.format("fichas: %d", tablero.getNFichas()));
         pasosLabel.setText(String.format("pasos: %d", tablero.getPasos()));
+        undoAction.setEnabled(tablero.puedeDeshacer());
+        redoAction.setEnabled(tablero.puedeRehacer());
     }
 
     /**
@@ -248,13 +608,15 @@ public class GUI
          * @param ae evento de disparo.
          */
         public void actionPerformed(ActionEvent ae) {
+            guardaPartida();
             semillaActual = System.currentTimeMillis();
             configuracionActual = configuracionSiguiente;
             tablero = new Tablero(semillaActual, configuracionActual);
+            dimensiona();
             repaint();
-            LOGGER.info(tablero.getFirma());
-            LOGGER.info(tablero.getMapaGrupos());
+            trazaTablero();
             presentaEstado();
+            renuevaPista();
         }
     }
 
@@ -274,11 +636,85 @@ public class GUI
          * @param ae evento de disparo.
          */
         public void actionPerformed(ActionEvent ae) {
+            guardaPartida();
             tablero = new Tablero(semillaActual, configuracionActual);
             repaint();
-            LOGGER.info(tablero.getFirma());
-            LOGGER.info(tablero.getMapaGrupos());
+            trazaTablero();
             presentaEstado();
+            renuevaPista();
+        }
+    }
+
+    /**
+     * Deshacemos la última jugada.
+     */
+    private class UndoAction
+            extends AbstractAction {
+        UndoAction() {
+            super("deshacer");
+            setEnabled(false);
+        }
+
+        /**
+         * Deshacemos la última jugada.
+         *
+         * @param ae evento de disparo.
+         */
+        public void actionPerformed(ActionEvent ae) {
+            if (tablero.deshacer()) {
+                nJugadas--;
+                repintaDesde(tablero.getPrimeraColumnaCambiada());
+                trazaTablero();
+                renuevaPista();
+            }
+            presentaEstado();
+        }
+    }
+
+    /**
+     * Rehacemos la última jugada deshecha.
+     */
+    private class RedoAction
+            extends AbstractAction {
+        RedoAction() {
+            super("rehacer");
+            setEnabled(false);
+        }
+
+        /**
+         * Rehacemos la última jugada deshecha.
+         *
+         * @param ae evento de disparo.
+         */
+        public void actionPerformed(ActionEvent ae) {
+            if (tablero.rehacer()) {
+                nJugadas++;
+                repintaDesde(tablero.getPrimeraColumnaCambiada());
+                trazaTablero();
+                renuevaPista();
+            }
+            presentaEstado();
+        }
+    }
+
+    /**
+     * Activamos o desactivamos las pistas.
+     */
+    private class HintAction
+            extends AbstractAction {
+        HintAction() {
+            super("pistas");
+            putValue(SELECTED_KEY, Boolean.FALSE);
+            setEnabled(admitePistas());
+        }
+
+        /**
+         * Activamos o desactivamos las pistas: el menú ya ha cambiado SELECTED_KEY.
+         *
+         * @param ae evento de disparo.
+         */
+        public void actionPerformed(ActionEvent ae) {
+            renuevaPista();
         }
     }
 
@@ -368,15 +804,18 @@ public class GUI
 
             if (e.getX() < nwx || e.getY() < nwy)
                 return;
-            int x = (e.getX() - MARGEN) / CELDA;
-            int y = (e.getY() - MARGEN) / CELDA;
+            int x = (e.getX() - MARGEN) / celda;
+            int y = (e.getY() - MARGEN) / celda;
 
             if (x >= 0 && x < tablero.getAncho() && y >= 0 && y < tablero.getAlto()) {
                 tablero.clic(x, y);
-                repaint();
-                LOGGER.info(tablero.getFirma());
-                LOGGER.info(tablero.getMapaGrupos());
+                if (tablero.getPrimeraColumnaCambiada() < tablero.getAncho())
+                    apuntaJugada(x, y);
+                repintaDesde(tablero.getPrimeraColumnaCambiada());
+                trazaTablero();
                 presentaEstado();
+                if (tablero.getPrimeraColumnaCambiada() < tablero.getAncho())
+                    renuevaPista();
             }
         }
     }
@@ -0,0 +1,285 @@
+package colorjunction;
+
+import java.util.Arrays;
+
+/**
+ * Diario de jugadas de un tablero, para poder deshacerlas y rehacerlas.
+ * Cada jugada se apunta como una serie de enteros seguidos en un único array:
+ * <pre>
+ *   casilla del clic, color del grupo, pasos y puntos antes de la jugada,
+ *   hash antes de la jugada (2 enteros), columnas con fichas antes de la jugada,
+ *   primera columna cambiada,
+ *   n, n casillas eliminadas (de menor a mayor),
+ *   m, m columnas que quedaron vacías (de menor a mayor)
+ * </pre>
+ * Las casillas se numeran como en Tablero: columna a columna, x * alto + y.
+ * Al deshacer, la casilla del clic pasa a la pila de jugadas para rehacer.
+ *
+ * @author Javier López Medina
+ * @version 1.0
+ */
+class Historial {
+    /**
+     * posiciones de cada dato dentro de una jugada
+     */
+    private static final int CELDA = 0;
+    private static final int COLOR = 1;
+    private static final int PASOS = 2;
+    private static final int PUNTOS = 3;
+    private static final int HASH = 4;
+    private static final int COLUMNAS = 6;
+    private static final int DESDE = 7;
+    private static final int N_ELIMINADAS = 8;
+
+    /**
+     * datos de todas las jugadas, una tras otra
+     */
+    private int[] datos = new int[256];
+    /**
+     * primera posición libre en datos
+     */
+    private int libre;
+    /**
+     * posición en datos en la que empieza cada jugada
+     */
+    private int[] jugadas = new int[32];
+    /**
+     * número de jugadas apuntadas
+     */
+    private int nJugadas;
+    /**
+     * posición en datos de la lista de columnas vacías de la jugada abierta
+     */
+    private int vaciadas;
+    /**
+     * casillas de las jugadas deshechas, la última arriba
+     */
+    private int[] rehacer = new int[32];
+    /**
+     * número de jugadas que se pueden rehacer
+     */
+    private int nRehacer;
+
+    /**
+     * Empieza a apuntar una jugada.
+     *
+     * @param celda  casilla en la que se hizo clic.
+     * @param color  índice de color del grupo eliminado.
+     * @param pasos  pasos antes de la jugada.
+     * @param puntos puntos antes de la jugada.
+     * @param hash   hash del tablero antes de la jugada.
+     * @param desde  primera columna con fichas eliminadas.
+     */
+    void abre(int celda, int color, int pasos, int puntos, long hash, int desde) {
+        if (nJugadas == jugadas.length)
+            jugadas = Arrays.copyOf(jugadas, 2 * nJugadas);
+        jugadas[nJugadas++] = libre;
+        anade(celda);
+        anade(color);
+        anade(pasos);
+        anade(puntos);
+        anade((int) (hash >>> 32));
+        anade((int) hash);
+        anade(0);
+        anade(desde);
+        anade(0);
+    }
+
+    /**
+     * Apunta una casilla eliminada en la jugada abierta.
+     *
+     * @param celda casilla eliminada.
+     */
+    void anadeEliminada(int celda) {
+        anade(celda);
+        datos[jugadas[nJugadas - 1] + N_ELIMINADAS]++;
+    }
+
+    /**
+     * Termina la lista de casillas eliminadas de la jugada abierta;
+     * a continuación se apuntan las columnas que quedan vacías.
+     */
+    void cierraEliminadas() {
+        int r = jugadas[nJugadas - 1];
+        Arrays.sort(datos, r + N_ELIMINADAS + 1, libre);
+        vaciadas = libre;
+        anade(0);
+    }
+
+    /**
+     * Apunta una columna que ha quedado vacía en la jugada abierta.
+     *
+     * @param columna columna, según estaba antes de la jugada.
+     */
+    void anadeVaciada(int columna) {
+        anade(columna);
+        datos[vaciadas]++;
+    }
+
+    /**
+     * Termina de apuntar la jugada abierta.
+     *
+     * @param columnas número de columnas con fichas antes de la jugada.
+     */
+    void cierra(int columnas) {
+        datos[jugadas[nJugadas - 1] + COLUMNAS] = columnas;
+    }
+
+    /**
+     * Añade un entero al final de los datos.
+     *
+     * @param valor entero que se añade.
+     */
+    private void anade(int valor) {
+        if (libre == datos.length)
+            datos = Arrays.copyOf(datos, 2 * libre);
+        datos[libre++] = valor;
+    }
+
+    /**
+     * @return número de jugadas que se pueden deshacer.
+     */
+    int getNJugadas() {
+        return nJugadas;
+    }
+
+    /**
+     * @return posición de la última jugada, para leerla con los getters.
+     */
+    int ultima() {
+        return jugadas[nJugadas - 1];
+    }
+
+    /**
+     * Olvida la última jugada y la deja para rehacer.
+     */
+    void deshace() {
+        int r = jugadas[--nJugadas];
+        if (nRehacer == rehacer.length)
+            rehacer = Arrays.copyOf(rehacer, 2 * nRehacer);
+        rehacer[nRehacer++] = datos[r + CELDA];
+        libre = r;
+    }
+
+    /**
+     * @return número de jugadas que se pueden rehacer.
+     */
+    int getNRehacer() {
+        return nRehacer;
+    }
+
+    /**
+     * Saca la última jugada deshecha.
+     *
+     * @return casilla en la que se hizo clic.
+     */
+    int sacaRehacer() {
+        return rehacer[--nRehacer];
+    }
+
+    /**
+     * Olvida todas las jugadas, hechas y deshechas.
+     */
+    void olvida() {
+        nJugadas = 0;
+        libre = 0;
+        nRehacer = 0;
+    }
+
+    /**
+     * Olvida las jugadas deshechas: se ha jugado otra cosa.
+     */
+    void olvidaRehacer() {
+        nRehacer = 0;
+    }
+
+    /**
+     * @param r posición de la jugada, según ultima().
+     * @return casilla en la que se hizo clic.
+     */
+    int getCelda(int r) {
+        return datos[r + CELDA];
+    }
+
+    /**
+     * @param r posición de la jugada, según ultima().
+     * @return índice de color del grupo eliminado.
+     */
+    int getColor(int r) {
+        return datos[r + COLOR];
+    }
+
+    /**
+     * @param r posición de la jugada, según ultima().
+     * @return pasos antes de la jugada.
+     */
+    int getPasos(int r) {
+        return datos[r + PASOS];
+    }
+
+    /**
+     * @param r posición de la jugada, según ultima().
+     * @return puntos antes de la jugada.
+     */
+    int getPuntos(int r) {
+        return datos[r + PUNTOS];
+    }
+
+    /**
+     * @param r posición de la jugada, según ultima().
+     * @return hash del tablero antes de la jugada.
+     */
+    long getHash(int r) {
+        return ((long) datos[r + HASH] << 32) | (datos[r + HASH + 1] & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param r posición de la jugada, según ultima().
+     * @return número de columnas con fichas antes de la jugada.
+     */
+    int getColumnas(int r) {
+        return datos[r + COLUMNAS];
+    }
+
+    /**
+     * @param r posición de la jugada, según ultima().
+     * @return primera columna con fichas eliminadas.
+     */
+    int getDesde(int r) {
+        return datos[r + DESDE];
+    }
+
+    /**
+     * @param r posición de la jugada, según ultima().
+     * @return número de casillas eliminadas.
+     */
+    int getNEliminadas(int r) {
+        return datos[r + N_ELIMINADAS];
+    }
+
+    /**
+     * @param r posición de la jugada, según ultima().
+     * @param k índice en la lista.
+     * @return k-ésima casilla eliminada, de menor a mayor.
+     */
+    int getEliminada(int r, int k) {
+        return datos[r + N_ELIMINADAS + 1 + k];
+    }
+
+    /**
+     * @param r posición de la jugada, según ultima().
+     * @return número de columnas que quedaron vacías.
+     */
+    int getNVaciadas(int r) {
+        return datos[r + N_ELIMINADAS + 1 + getNEliminadas(r)];
+    }
+
+    /**
+     * @param r posición de la jugada, según ultima().
+     * @param k índice en la lista.
+     * @return k-ésima columna que quedó vacía, de menor a mayor.
+     */
+    int getVaciada(int r, int k) {
+        return datos[r + N_ELIMINADAS + 2 + getNEliminadas(r) + k];
+    }
+}
@@ -0,0 +1,26 @@
+package colorjunction.solver;
+
+import colorjunction.Tablero;
+
+/**
+ * Estrategia que juega una partida jugada a jugada, para Autojuego.
+ *
+ * @author Javier López Medina
+ * @version 1.0
+ */
+public interface Jugador {
+    /**
+     * Empieza una partida.
+     *
+     * @param tablero tablero de la partida, antes de la primera jugada.
+     */
+    void empieza(Tablero tablero);
+
+    /**
+     * Elige la siguiente jugada.
+     *
+     * @param tablero tablero de la partida, con alguna jugada posible.
+     * @return casilla en la que hacer clic, empaquetada como x * alto + y; -1 para terminar la partida.
+     */
+    int jugada(Tablero tablero);
+}
@@ -7,9 +7,28 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Trazas de ejecucin.
+ * <p>
+ * Por defecto cada traza se escribe en el momento, desde el hilo que la
+ * genera. Con la propiedad <code>.async = true</code> en java.logger, las
+ * trazas se dejan en un anillo acotado, sin cerrojos, y un nico hilo las
+ * saca, les da formato y las escribe en consola y en fichero por lotes.
+ * Otras propiedades del modo asncrono:
+ * <ul>
+ * <li><code>.async.capacity</code>: trazas que caben en el anillo (8192);
+ * se redondea a potencia de 2.</li>
+ * <li><code>.async.overflow</code>: qu hacer con el anillo lleno:
+ * <code>drop</code> (por defecto) pierde la traza, <code>block</code> espera
+ * a que haya sitio y <code>sample</code> pierde la traza y, desde que el
+ * anillo est a medias, slo deja pasar una de cada
+ * <code>.async.sample</code> (10) trazas de nivel menor que WARNING.</li>
+ * </ul>
+ * Las trazas perdidas se cuentan y se avisa de ellas en consola.
  *
  * @author Javier Lpez Medina
  * @version 26.2.2006 9.3.2008
@@ -68,6 +87,11 @@ public class Logger {
     private static int default_file_level = INFO;
     private static PrintStream file = null;
 
+    /**
+     * Anillo del modo asncrono; NULL si se escribe en el momento.
+     */
+    private static final AsyncWriter async;
+
     private String name;
     private int console_level;
     private int file_level;
@@ -100,6 +124,44 @@ public class Logger {
         default_console_level = Math.max(default_console_level, default_level);
         default_file_level = getLevel(properties.getProperty(".file.level"), OFF);
         default_file_level = Math.max(default_file_level, default_level);
+
+        AsyncWriter writer = null;
+        if (Boolean.valueOf(properties.getProperty(".async", "false").trim())) {
+            try {
+                writer = new AsyncWriter(
+                        getInt(properties.getProperty(".async.capacity"), 8192),
+                        getPolicy(properties.getProperty(".async.overflow")),
+                        getInt(properties.getProperty(".async.sample"), 10));
+            } catch (Exception e) {
+                console.println(e);
+            }
+        }
+        async = writer;
+    }
+
+    private static int getInt(String code, int def) {
+        if (code == null) {
+            return def;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(code.trim()));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    private static int getPolicy(String code) {
+        if (code == null) {
+            return AsyncWriter.DROP;
+        }
+        code = code.trim();
+        if (code.equalsIgnoreCase("block")) {
+            return AsyncWriter.BLOCK;
+        }
+        if (code.equalsIgnoreCase("sample")) {
+            return AsyncWriter.SAMPLE;
+        }
+        return AsyncWriter.DROP;
     }
 
     private static int getLevel(String code, int def) {
@@ -257,7 +319,7 @@ public class Logger {
         return ALL;
     }
 
-    private PrintStream createFile() {
+    private static PrintStream createFile() {
         try {
             String p = properties.getProperty(".file.name", "J$.log");
             int mark = p.indexOf('$');
@@ -450,6 +512,10 @@ public class Logger {
      * @param level Nivel de la traza.
      */
     public final void log(int level) {
+        if (async != null) {
+            enqueue(level, AsyncWriter.NAME, null, null, null);
+            return;
+        }
         if (level >= console_level) {
             console.println(name);
         }
@@ -468,6 +534,10 @@ public class Logger {
      * @param msg   Mensaje de la traza.
      */
     public final void log(int level, String msg) {
+        if (async != null) {
+            enqueue(level, AsyncWriter.MSG, msg, null, null);
+            return;
+        }
         if (level >= console_level) {
             console.print(name);
             console.print(getLevelString(level));
@@ -491,6 +561,10 @@ public class Logger {
      * @param msg2  Mensaje de la traza (parte 2).
      */
     public final void log(int level, String msg1, String msg2) {
+        if (async != null) {
+            enqueue(level, AsyncWriter.MSG2, msg1, msg2, null);
+            return;
+        }
         if (level >= console_level) {
             console.print(name);
             console.print(getLevelString(level));
@@ -518,6 +592,10 @@ public class Logger {
      * @param throwable Excepcin que se quiere trazar.
      */
     public final void log(int level, String msg, Throwable throwable) {
+        if (async != null) {
+            enqueue(level, AsyncWriter.THROWABLE, msg, null, throwable);
+            return;
+        }
         if (level >= console_level) {
             console.print(name);
             console.print(getLevelString(level));
@@ -534,4 +612,280 @@ public class Logger {
             throwable.printStackTrace(file);
         }
     }
+
+    /**
+     * Deja una traza en el anillo, si va a alguna parte.
+     */
+    private void enqueue(int level, int kind, String msg1, String msg2, Throwable throwable) {
+        int where = 0;
+        if (level >= console_level) {
+            where |= AsyncWriter.CONSOLE;
+        }
+        if (level >= file_level) {
+            where |= AsyncWriter.FILE;
+        }
+        if (where != 0) {
+            async.enqueue(name, level, kind, where, msg1, msg2, throwable);
+        }
+    }
+
+    /**
+     * Espera a que est\xe9n escritas todas las trazas generadas hasta ahora.
+     * En modo as\xedncrono se llama sola al terminar la m\xe1quina virtual.
+     */
+    public static void flush() {
+        if (async != null) {
+            async.flush();
+            return;
+        }
+        console.flush();
+        if (file != null) {
+            file.flush();
+        }
+    }
+
+    /**
+     * Modo as\xedncrono: anillo acotado de trazas, en el que escriben muchos
+     * hilos sin cerrojos, y el hilo que las saca y las escribe.
+     * <p>
+     * Cada casilla tiene un n\xfamero de secuencia: cuando vale la posici\xf3n
+     * de escritura, est\xe1 libre para ella; cuando vale la posici\xf3n + 1, tiene
+     * una traza que se puede leer. Quien escribe se reserva una posici\xf3n
+     * con un compareAndSet; quien lee es s\xf3lo el hilo escritor. Las
+     * casillas se crean al principio y se reutilizan: quien traza no crea
+     * objetos ni da formato, s\xf3lo copia referencias.
+     */
+    private static final class AsyncWriter implements Runnable {
+        static final int DROP = 0;
+        static final int BLOCK = 1;
+        static final int SAMPLE = 2;
+
+        /**
+         * formas de traza: s\xf3lo el nombre, un mensaje, dos, o mensaje y excepci\xf3n
+         */
+        static final int NAME = 0;
+        static final int MSG = 1;
+        static final int MSG2 = 2;
+        static final int THROWABLE = 3;
+
+        /**
+         * destinos
+         */
+        static final int CONSOLE = 1;
+        static final int FILE = 2;
+
+        /**
+         * trazas que se escriben de una vez, como mucho
+         */
+        private static final int BATCH = 256;
+
+        private final int mask;
+        private final int policy;
+        private final int sample;
+        private final Slot[] slots;
+        private final AtomicLongArray sequences;
+        /**
+         * siguiente posici\xf3n en la que se escribe
+         */
+        private final AtomicLong tail = new AtomicLong();
+        /**
+         * siguiente posici\xf3n que se lee; s\xf3lo la usa el hilo escritor
+         */
+        private long head;
+        /**
+         * posiciones ya escritas en consola y fichero
+         */
+        private volatile long written;
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong sampled = new AtomicLong();
+        private final Thread thread;
+        /**
+         * TRUE mientras el hilo escritor est\xe1 a punto de dormir o dormido
+         */
+        private volatile boolean sleeping;
+
+        AsyncWriter(int capacity, int policy, int sample) {
+            int size = Integer.highestOneBit(Math.min(capacity, 1 << 24));
+            if (size < capacity) {
+                size <<= 1;
+            }
+            mask = size - 1;
+            this.policy = policy;
+            this.sample = sample;
+            slots = new Slot[size];
+            sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                slots[i] = new Slot();
+                sequences.set(i, i);
+            }
+            thread = new Thread(this, "lprg.log.Logger");
+            thread.setDaemon(true);
+            thread.start();
+            try {
+                Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                    public void run() {
+                        flush();
+                    }
+                }));
+            } catch (SecurityException e) {
+                console.println(e);
+            }
+        }
+
+        void enqueue(String name, int level, int kind, int where,
+                     String msg1, String msg2, Throwable throwable) {
+            if (policy == SAMPLE && level < WARNING
+                    && tail.get() - written > (mask + 1) / 2
+                    && sampled.getAndIncrement() % sample != 0) {
+                dropped.incrementAndGet();
+                return;
+            }
+            long position;
+            while (true) {
+                position = tail.get();
+                long difference = sequences.get((int) position & mask) - position;
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        break;
+                    }
+                } else if (difference < 0) {
+                    // lleno; sin hilo escritor no se vaciara nunca
+                    if (policy != BLOCK || !thread.isAlive()) {
+                        dropped.incrementAndGet();
+                        return;
+                    }
+                    wakeUp();
+                    Thread.yield();
+                }
+            }
+            Slot slot = slots[(int) position & mask];
+            slot.name = name;
+            slot.level = level;
+            slot.kind = kind;
+            slot.where = where;
+            slot.msg1 = msg1;
+            slot.msg2 = msg2;
+            slot.throwable = throwable;
+            // set y no lazySet: la lectura de sleeping no puede adelantarse a
+            // la publicacin, o el escritor y quien traza no se veran
+            sequences.set((int) position & mask, position + 1);
+            if (sleeping) {
+                wakeUp();
+            }
+        }
+
+        private void wakeUp() {
+            sleeping = false;
+            LockSupport.unpark(thread);
+        }
+
+        void flush() {
+            long until = tail.get();
+            while (written < until && thread.isAlive()) {
+                wakeUp();
+                LockSupport.parkNanos(100000L);
+            }
+        }
+
+        public void run() {
+            StringBuilder toConsole = new StringBuilder();
+            StringBuilder toFile = new StringBuilder();
+            StringBuilder line = new StringBuilder();
+            while (true) {
+                int n = 0;
+                while (n < BATCH) {
+                    int index = (int) head & mask;
+                    if (sequences.get(index) != head + 1) {
+                        break;
+                    }
+                    Slot slot = slots[index];
+                    line.setLength(0);
+                    try {
+                        slot.format(line);
+                        if ((slot.where & CONSOLE) != 0) {
+                            toConsole.append(line);
+                        }
+                        if ((slot.where & FILE) != 0) {
+                            toFile.append(line);
+                        }
+                    } catch (Throwable e) {
+                        // una traza mala (por ejemplo, con excepcin NULL) se pierde,
+                        // pero el hilo escritor sigue
+                        dropped.incrementAndGet();
+                    }
+                    slot.clear();
+                    sequences.lazySet(index, head + mask + 1);
+                    head++;
+                    n++;
+                }
+                long lost = dropped.getAndSet(0);
+                if (lost > 0) {
+                    toConsole.append("lprg.log.Logger [warning]: ").append(lost)
+                            .append(" trazas perdidas").append(System.lineSeparator());
+                }
+                if (toConsole.length() > 0) {
+                    console.print(toConsole);
+                    console.flush();
+                    toConsole.setLength(0);
+                }
+                if (toFile.length() > 0) {
+                    if (file == null) {
+                        file = createFile();
+                    }
+                    file.print(toFile);
+                    file.flush();
+                    toFile.setLength(0);
+                }
+                written = head;
+                if (n == 0) {
+                    sleeping = true;
+                    // vuelve a mirar: pudo llegar una traza antes de marcarse dormido
+                    if (sequences.get((int) head & mask) != head + 1) {
+                        LockSupport.parkNanos(100000000L);
+                    }
+                    sleeping = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Casilla del anillo.
+     */
+    private static final class Slot {
+        String name;
+        int level;
+        int kind;
+        int where;
+        String msg1;
+        String msg2;
+        Throwable throwable;
+
+        /**
+         * Da formato a la traza como lo har\xeda el modo s\xedncrono.
+         */
+        void format(StringBuilder line) {
+            line.append(name);
+            if (kind != AsyncWriter.NAME) {
+                line.append(getLevelString(level)).append(msg1);
+                if (kind == AsyncWriter.MSG2) {
+                    line.append(' ').append(msg2);
+                }
+            }
+            line.append(System.lineSeparator());
+            if (kind == AsyncWriter.THROWABLE) {
+                StringWriter trace = new StringWriter();
+                throwable.printStackTrace(new PrintWriter(trace));
+                line.append(trace);
+            }
+        }
+
+        void clear() {
+            name = null;
+            msg1 = null;
+            msg2 = null;
+            throwable = null;
+        }
+    }
 }
+
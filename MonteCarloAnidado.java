@@ -0,0 +1,238 @@
+package colorjunction.solver;
+
+import colorjunction.Tablero;
+import colorjunction.conf.Configuracion;
+import log.Logger;
+
+import java.util.Arrays;
+
+/**
+ * Jugador automático por búsqueda de Monte Carlo anidada (NMCS).
+ * En el nivel 0 juega una partida al azar hasta el final. En el nivel n,
+ * desde cada posición prueba todas las jugadas, sigue cada una con una
+ * búsqueda de nivel n - 1, y avanza una jugada por la mejor serie
+ * encontrada hasta entonces.
+ * <p>
+ * Las partidas al azar evitan el color con más fichas mientras haya
+ * otros grupos, para que sus fichas se junten y den más puntos al final.
+ * <p>
+ * Cada nivel tiene su propio tablero y sus propios arrays, que se
+ * reutilizan con Tablero.copiaDe(): una vez en marcha, la búsqueda no
+ * reserva memoria ni por jugada ni por partida simulada. Si se agota el
+ * tiempo, los niveles que faltan se resuelven con una sola partida al azar.
+ *
+ * @author Javier López Medina
+ * @version 1.0
+ */
+public class MonteCarloAnidado implements Buscador {
+    /**
+     * nivel de anidamiento de la búsqueda
+     */
+    private final int nivel;
+    /**
+     * semilla de las partidas al azar
+     */
+    private final long semilla;
+    /**
+     * tiempo máximo de búsqueda, en nanosegundos
+     */
+    private final long presupuesto;
+    /**
+     * generador de la búsqueda en curso
+     */
+    private Azar azar;
+    /**
+     * posición de cada nivel
+     */
+    private Tablero[] tableros;
+    /**
+     * jugadas posibles en la posición de cada nivel, como Tablero.getJugadas()
+     */
+    private int[][] jugadas;
+    /**
+     * mejor serie de jugadas de cada nivel, y su longitud
+     */
+    private int[][] series;
+    private int[] longitudes;
+    /**
+     * fichas de cada color, para las partidas al azar
+     */
+    private int[] cuenta;
+    /**
+     * momento en que empezó la búsqueda en curso
+     */
+    private long inicio;
+    /**
+     * partidas al azar jugadas en la última búsqueda, y cuánto duró
+     */
+    private long partidas;
+    private long nanosegundos;
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = Logger.getLogger("colorjunction.solver.MonteCarloAnidado");
+
+    /**
+     * Constructor.
+     *
+     * @param nivel       nivel de anidamiento; 0 es una sola partida al azar.
+     * @param semilla     fija la búsqueda: con la misma semilla y sin agotar el tiempo, da siempre lo mismo.
+     * @param presupuesto tiempo máximo de búsqueda, en milisegundos.
+     */
+    public MonteCarloAnidado(int nivel, long semilla, long presupuesto) {
+        if (nivel < 0)
+            throw new IllegalArgumentException("nivel: " + nivel);
+        this.nivel = nivel;
+        this.semilla = semilla;
+        this.presupuesto = presupuesto * 1000000L;
+    }
+
+    /**
+     * Busca la mejor serie de jugadas desde un tablero. El tablero no cambia.
+     *
+     * @param tablero posición de partida.
+     * @return mejor serie de jugadas encontrada, y los puntos que suma.
+     */
+    public Solucion resuelve(Tablero tablero) {
+        prepara(tablero);
+        inicio = System.nanoTime();
+        partidas = 0;
+        tableros[nivel].copiaDe(tablero);
+        int puntos = busca(nivel);
+        nanosegundos = System.nanoTime() - inicio;
+        Solucion solucion = new Solucion(Arrays.copyOf(series[nivel], longitudes[nivel]),
+                tablero.getAlto(), puntos - tablero.getPuntos());
+        LOGGER.fine("MonteCarloAnidado: " + solucion.getPuntos() + " puntos, " + partidas + " partidas en "
+                + nanosegundos / 1000000 + " ms (" + getPartidasPorSegundo() + " partidas/s)");
+        return solucion;
+    }
+
+    /**
+     * @return partidas al azar jugadas en la última búsqueda.
+     */
+    public long getPartidas() {
+        return partidas;
+    }
+
+    /**
+     * @return partidas al azar por segundo en la última búsqueda.
+     */
+    public long getPartidasPorSegundo() {
+        return partidas * 1000000000L / Math.max(1, nanosegundos);
+    }
+
+    /**
+     * Reserva los tableros y arrays de cada nivel, para tableros como el dado.
+     *
+     * @param tablero tablero del tamaño con el que se va a buscar.
+     */
+    private void prepara(Tablero tablero) {
+        azar = new Azar(semilla);
+        tableros = new Tablero[nivel + 1];
+        jugadas = new int[nivel + 1][];
+        series = new int[nivel + 1][];
+        longitudes = new int[nivel + 1];
+        int casillas = tablero.getAncho() * tablero.getAlto();
+        for (int n = 0; n <= nivel; n++) {
+            tableros[n] = new Tablero(tablero);
+            tableros[n].setHistorial(false);
+            jugadas[n] = new int[casillas + 2];
+            // cada jugada elimina al menos 2 fichas
+            series[n] = new int[casillas / 2 + 1];
+        }
+        cuenta = new int[tablero.getNColores()];
+    }
+
+    /**
+     * Búsqueda de un nivel desde la posición de tableros[n], que queda
+     * al final de la mejor serie encontrada.
+     *
+     * @param n nivel.
+     * @return puntos del tablero al final de la serie, que queda en series[n].
+     */
+    private int busca(int n) {
+        Tablero tablero = tableros[n];
+        if (n == 0 || System.nanoTime() - inicio > presupuesto)
+            return juegaAlAzar(tablero, series[n], n);
+        int alto = tablero.getAlto();
+        int[] mejor = series[n];
+        int mejorPuntos = -1;
+        int hechas = 0;
+        Tablero siguiente = tableros[n - 1];
+        int nJugadas;
+        while ((nJugadas = tablero.getJugadas(jugadas[n])) > 0) {
+            for (int k = 0; k < nJugadas; k++) {
+                int celda = jugadas[n][2 * k];
+                siguiente.copiaDe(tablero);
+                siguiente.clic(celda / alto, celda % alto);
+                int puntos = busca(n - 1);
+                if (puntos > mejorPuntos) {
+                    mejorPuntos = puntos;
+                    mejor[hechas] = celda;
+                    System.arraycopy(series[n - 1], 0, mejor, hechas + 1, longitudes[n - 1]);
+                }
+            }
+            int celda = mejor[hechas++];
+            tablero.clic(celda / alto, celda % alto);
+        }
+        longitudes[n] = hechas;
+        return tablero.getPuntos();
+    }
+
+    /**
+     * Juega una partida al azar hasta el final, evitando el color con más fichas.
+     *
+     * @param tablero posición de partida; queda al final de la partida.
+     * @param serie   array en el que se apuntan las jugadas.
+     * @param n       nivel, para apuntar la longitud de la serie.
+     * @return puntos del tablero al final de la partida.
+     */
+    private int juegaAlAzar(Tablero tablero, int[] serie, int n) {
+        tablero.cuentaColores(cuenta);
+        int evitado = 0;
+        for (int c = 1; c < cuenta.length; c++)
+            if (cuenta[c] > cuenta[evitado])
+                evitado = c;
+        int alto = tablero.getAlto();
+        int hechas = 0;
+        int nGrupos;
+        while ((nGrupos = tablero.getNGrupos()) > 0) {
+            int primero = azar.nextInt(nGrupos);
+            int g = primero + 1;
+            // el primer grupo de otro color, a partir de uno al azar
+            for (int k = 0; k < nGrupos; k++) {
+                int candidato = (primero + k) % nGrupos + 1;
+                if (tablero.getColorGrupo(candidato) != evitado) {
+                    g = candidato;
+                    break;
+                }
+            }
+            int celda = tablero.getRepresentanteGrupo(g);
+            serie[hechas++] = celda;
+            tablero.clic(celda / alto, celda % alto);
+        }
+        longitudes[n] = hechas;
+        partidas++;
+        return tablero.getPuntos();
+    }
+
+    /**
+     * Da las partidas por segundo de una búsqueda.
+     *
+     * @param args ancho, alto, colores, semilla, nivel y milisegundos;
+     *             por omisión, 20 20 5 0 1 10000.
+     */
+    public static void main(String[] args) {
+        int ancho = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int alto = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int nColores = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        long semilla = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        int nivel = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+        long ms = args.length > 5 ? Long.parseLong(args[5]) : 10000;
+        Tablero tablero = new Tablero(semilla, new Configuracion(ancho, alto, nColores));
+        MonteCarloAnidado busqueda = new MonteCarloAnidado(nivel, semilla, ms);
+        Solucion solucion = busqueda.resuelve(tablero);
+        System.out.println(solucion.getPuntos() + " puntos, " + solucion.getNJugadas() + " jugadas, "
+                + busqueda.getPartidas() + " partidas, " + busqueda.getPartidasPorSegundo() + " partidas/s");
+    }
+}
@@ -0,0 +1,93 @@
+package colorjunction.solver;
+
+import colorjunction.Coordenadas;
+import colorjunction.Tablero;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resultado de un jugador automático: una serie de jugadas y los puntos
+ * que se consiguen con ellas desde el tablero de partida.
+ * Cada jugada es la casilla en la que hacer clic, empaquetada como
+ * x * alto + y, igual que en Tablero.getJugadas().
+ *
+ * @author Javier López Medina
+ * @version 1.0
+ */
+public class Solucion {
+    /**
+     * casillas en las que hacer clic, en orden
+     */
+    private final int[] celdas;
+    /**
+     * número de casillas a lo alto del tablero, para desempaquetar las casillas
+     */
+    private final int alto;
+    /**
+     * puntos que se suman con las jugadas
+     */
+    private final int puntos;
+
+    /**
+     * Constructor.
+     *
+     * @param celdas casillas en las que hacer clic, x * alto + y.
+     * @param alto   número de casillas a lo alto del tablero.
+     * @param puntos puntos que se suman con las jugadas.
+     */
+    public Solucion(int[] celdas, int alto, int puntos) {
+        this.celdas = celdas.clone();
+        this.alto = alto;
+        this.puntos = puntos;
+    }
+
+    /**
+     * @return número de jugadas.
+     */
+    public int getNJugadas() {
+        return celdas.length;
+    }
+
+    /**
+     * @param k número de jugada, desde 0.
+     * @return casilla en la que hacer clic, x * alto + y.
+     */
+    public int getCelda(int k) {
+        return celdas[k];
+    }
+
+    /**
+     * @return casillas en las que hacer clic, en orden.
+     */
+    public List<Coordenadas> getJugadas() {
+        List<Coordenadas> jugadas = new ArrayList<Coordenadas>(celdas.length);
+        for (int celda : celdas)
+            jugadas.add(new Coordenadas(celda / alto, celda % alto));
+        return jugadas;
+    }
+
+    /**
+     * @return puntos que se suman con las jugadas.
+     */
+    public int getPuntos() {
+        return puntos;
+    }
+
+    /**
+     * Hace las jugadas sobre un tablero.
+     *
+     * @param tablero tablero en la posición de partida.
+     */
+    public void juega(Tablero tablero) {
+        for (int celda : celdas)
+            tablero.clic(celda / alto, celda % alto);
+    }
+
+    /**
+     * @return Devuelve los puntos y las jugadas en formato imprimible.
+     */
+    public String toString() {
+        return puntos + " puntos " + getJugadas();
+    }
+}
@@ -0,0 +1,156 @@
+package colorjunction.solver;
+
+import java.util.Arrays;
+
+/**
+ * Tabla de transposición: para cada posición ya vista, los mejores puntos
+ * con los que se ha llegado a ella. Las posiciones se identifican por el
+ * hash de Tablero.getHash(), que es el mismo para tableros con la misma firma.
+ * <p>
+ * Guarda las claves y los valores en dos arrays con direccionamiento abierto,
+ * sin objetos por entrada. Crece hasta una capacidad máxima; cuando se llena,
+ * se vacía: perder entradas sólo hace que se repita algo de trabajo.
+ *
+ * @author Javier López Medina
+ * @version 1.0
+ */
+class TablaTransposicion {
+    /**
+     * valor de get() para una posición que no está en la tabla
+     */
+    static final int NINGUNO = Integer.MIN_VALUE;
+    /**
+     * clave que marca una entrada libre
+     */
+    private static final long LIBRE = 0;
+
+    /**
+     * capacidad máxima, potencia de 2
+     */
+    private final int maxCapacidad;
+    /**
+     * clave de cada entrada; LIBRE si está libre
+     */
+    private long[] claves;
+    /**
+     * valor de cada entrada
+     */
+    private int[] valores;
+    /**
+     * entradas ocupadas
+     */
+    private int n;
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntradas número de entradas a partir del cual la tabla deja de crecer.
+     */
+    TablaTransposicion(int maxEntradas) {
+        maxCapacidad = Integer.highestOneBit(Math.max(16, maxEntradas)) * 2;
+        claves = new long[1024];
+        valores = new int[1024];
+    }
+
+    /**
+     * @param hash hash de la posición.
+     * @return mejores puntos con los que se ha llegado a la posición; NINGUNO si no está.
+     */
+    int get(long hash) {
+        long clave = clave(hash);
+        int mascara = claves.length - 1;
+        for (int i = posicion(clave, mascara); ; i = (i + 1) & mascara) {
+            if (claves[i] == clave)
+                return valores[i];
+            if (claves[i] == LIBRE)
+                return NINGUNO;
+        }
+    }
+
+    /**
+     * Apunta los puntos con los que se llega a una posición, si son mejores
+     * que los que había.
+     *
+     * @param hash   hash de la posición.
+     * @param puntos puntos con los que se llega.
+     * @return TRUE si no se había llegado antes con tantos puntos o más.
+     */
+    boolean mejora(long hash, int puntos) {
+        long clave = clave(hash);
+        int mascara = claves.length - 1;
+        int i = posicion(clave, mascara);
+        for (; claves[i] != LIBRE; i = (i + 1) & mascara) {
+            if (claves[i] == clave) {
+                if (valores[i] >= puntos)
+                    return false;
+                valores[i] = puntos;
+                return true;
+            }
+        }
+        claves[i] = clave;
+        valores[i] = puntos;
+        if (++n * 4 > claves.length * 3)
+            crece();
+        return true;
+    }
+
+    /**
+     * @return número de posiciones en la tabla.
+     */
+    int size() {
+        return n;
+    }
+
+    /**
+     * Vacía la tabla.
+     */
+    void limpia() {
+        Arrays.fill(claves, LIBRE);
+        n = 0;
+    }
+
+    /**
+     * Duplica la capacidad, o vacía la tabla si ya tiene la máxima.
+     */
+    private void crece() {
+        if (claves.length >= maxCapacidad) {
+            limpia();
+            return;
+        }
+        long[] viejasClaves = claves;
+        int[] viejosValores = valores;
+        claves = new long[2 * viejasClaves.length];
+        valores = new int[2 * viejasClaves.length];
+        int mascara = claves.length - 1;
+        for (int k = 0; k < viejasClaves.length; k++) {
+            if (viejasClaves[k] == LIBRE)
+                continue;
+            int i = posicion(viejasClaves[k], mascara);
+            while (claves[i] != LIBRE)
+                i = (i + 1) & mascara;
+            claves[i] = viejasClaves[k];
+            valores[i] = viejosValores[k];
+        }
+    }
+
+    /**
+     * El tablero vacío tiene hash 0, que marca las entradas libres:
+     * se guarda con otra clave.
+     *
+     * @param hash hash de la posición.
+     * @return clave distinta de LIBRE.
+     */
+    private static long clave(long hash) {
+        return hash == LIBRE ? 1 : hash;
+    }
+
+    /**
+     * @param clave   clave de la posición.
+     * @param mascara capacidad - 1.
+     * @return primera entrada en la que se busca la clave.
+     */
+    private static int posicion(long clave, int mascara) {
+        // los bits del hash de Zobrist ya están mezclados
+        return (int) (clave ^ (clave >>> 32)) & mascara;
+    }
+}
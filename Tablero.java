@@ -9,36 +9,68 @@ import log.Logger;
 
 /**
  * Tablero del juego.
+ * Las fichas se guardan como índices de color en un array de bytes por
+ * columna: la casilla (x, y) es columnas[x][y]. Fuera de las columnas,
+ * cada casilla se numera como x * ALTO + y.
+ * Las columnas se comparten entre un tablero y sus copias (ver copiaYClic()),
+ * y cada uno copia una columna sólo cuando va a escribir en ella.
+ * El color (java.awt.Color) sólo se resuelve al pintar, mediante
+ * Configuracion.getColor(indice).
  *
  * @author Javier López Medina
  * @version 1.0
  */
 
 public class Tablero {
+	/**
+	 * valor de una casilla sin ficha
+	 */
+	public static final int VACIA = -1;
+	/**
+	 * casillas a partir de las cuales un tablero es grande: tras cada jugada
+	 * no se vuelven a adjudicar los grupos, sino cuando se consultan, y un
+	 * clic sólo recorre el grupo de la casilla (ver juega())
+	 */
+	static final int CASILLAS_TABLERO_GRANDE = 1 << 16;
     /**
-     * el color de la ficha en cada casilla; o NULL si no hay ficha
+     * el índice de color de la ficha en cada casilla, columnas[x][y]; o VACIA si no hay ficha.
+     * Una columna puede estar compartida con otros tableros: antes de escribir
+     * en ella hay que pedirla con escribible(x)
      */
-	private Color[][] casillas;
-    
+	private byte[][] columnas;
+	/**
+	 * qué columnas son sólo de este tablero y se pueden escribir sin copiarlas
+	 */
+	private boolean[] propias;
+
     /**
      * a que grupo pertenece cada casilla en el tablero
      */
-	private int[][] grupos;
-    
+	private Etiquetador etiquetador;
+	/**
+	 * FALSE si los grupos de etiquetador no corresponden a las fichas y hay
+	 * que volver a adjudicarlos antes de consultarlos (ver grupos())
+	 */
+	private boolean gruposAlDia;
+
     /**
      * número de grupos
      */
 	private int nGrupos;
-    
+
     /**
      * número de pasos realizados en este juego
      */
 	private int pasos;
-    
+
     /**
-     * número de puntos acumulados 
+     * número de puntos acumulados
      */
 	private int puntos;
+	/**
+	 * fichas que quedan en el tablero; -1 si hay que contarlas (ver getNFichas())
+	 */
+	private int nFichas = -1;
 	/**
 	 * número de colores totales en el tablero
 	 */
@@ -51,6 +83,36 @@ public class Tablero {
 	 * número de fichas a lo alto
 	 */
      private final int ALTO;
+	/**
+	 * tras el último clic: de qué columna viene cada una; -1 si ha quedado vacía
+	 */
+	private int[] origenColumnas;
+	/**
+	 * tras el último clic: primera columna que ha cambiado; ANCHO si ninguna.
+	 * En un tablero recién creado, 0: ha cambiado todo
+	 */
+	private int primeraColumnaCambiada;
+	/**
+	 * jugadas hechas, para deshacerlas; NULL si no se apuntan
+	 */
+	private Historial historial;
+	/**
+	 * hash de Zobrist de las fichas: XOR de clave(casilla, color) de cada ficha
+	 */
+	private long hash;
+	/**
+	 * firma y mapa de grupos ya calculados; NULL si hay que calcularlos
+	 */
+	private String firma;
+	private String mapaGrupos;
+	/**
+	 * buffer en el que se componen la firma y el mapa de grupos
+	 */
+	private StringBuilder buffer;
+	/**
+	 * parámetros de configuración: paleta de colores
+	 */
+	private final Configuracion configuracion;
 	/**
 	 * Logger
 	 */
@@ -62,22 +124,96 @@ public class Tablero {
 	 * @param configuracion - parmetros de configuración.
 	 */
 	public Tablero(long semilla, Configuracion configuracion){
-		LOGGER.fine("Se ha creado un tablero aleatorio de semilla " + semilla);
 		ANCHO = configuracion.getAncho();
 		ALTO = configuracion.getAlto();
 		nColores = configuracion.getNColores();
-		casillas = new Color [ALTO][ANCHO];
-		Random random = new Random(semilla);
-		for (int x=0; x < ANCHO; x++){
-			for(int y=0; y < ALTO; y++){
-				int idx = random.nextInt(nColores);
-				Color color = configuracion.getColor(idx);
-				casillas[y][x] = color;
+		this.configuracion = configuracion;
+		historial = new Historial();
+		creaColumnas();
+		reparte(semilla);
+		addGrupos();
+	}
+	/**
+	 * Vuelve a repartir las fichas, como el constructor con la misma semilla,
+	 * reutilizando las columnas de este tablero: una vez que todas son
+	 * propias, no reserva memoria. Sirve para examinar muchas semillas con
+	 * un solo tablero. Pasos y puntos vuelven a 0, los grupos se adjudican
+	 * cuando se consultan por primera vez y el historial, si lo hay, se vacía.
+	 * <p>
+	 * Las fichas salen de la misma serie que java.util.Random(semilla).nextInt(nColores),
+	 * fila a fila; el generador se calcula aquí para no crear un Random por tablero.
+	 * @param semilla - fija el resultado de la elección aleatoria de fichas.
+	 */
+	public void reparte(long semilla){
+		long estado = (semilla ^ 0x5DEECE66DL) & ((1L << 48) - 1);
+		boolean potenciaDe2 = (nColores & -nColores) == nColores;
+		byte[][] columnas = columnasParaEscribir();
+		for (int y=0; y < ALTO; y++){
+			for(int x=0; x < ANCHO; x++){
+				// Random.nextInt(nColores): next(31) y, si hace falta, se descarta y se repite
+				int r, color;
+				do {
+					estado = (estado * 0x5DEECE66DL + 0xBL) & ((1L << 48) - 1);
+					r = (int) (estado >>> 17);
+					color = potenciaDe2 ? (int) ((nColores * (long) r) >> 31) : r % nColores;
+				} while (!potenciaDe2 && r - color + (nColores - 1) < 0);
+				columnas[x][y] = (byte) color;
+			}
+		}
+		empieza();
+		nFichas = ANCHO * ALTO;
+		if (LOGGER.inAny(Logger.FINE))
+			LOGGER.fine("Se ha creado un tablero aleatorio de semilla " + semilla);
+	}
+	/**
+	 * Constructor auxiliar de CodificacionTablero: el tablero se queda con
+	 * las columnas que se le dan, ya llenas. Los grupos se adjudican cuando
+	 * se consultan por primera vez.
+	 * @param configuracion - parámetros de configuración.
+	 * @param columnas - índice de color de cada casilla, columnas[x][y]; VACIA si no hay ficha.
+	 */
+	Tablero(Configuracion configuracion, byte[][] columnas){
+		ANCHO = configuracion.getAncho();
+		ALTO = configuracion.getAlto();
+		nColores = configuracion.getNColores();
+		this.configuracion = configuracion;
+		historial = new Historial();
+		this.columnas = columnas;
+		propias = new boolean[ANCHO];
+		Arrays.fill(propias, true);
+		empieza();
+	}
+	/**
+	 * Mtodo auxiliar que utilizan reparte() y CodificacionTablero para
+	 * cambiar todas las fichas del tablero: da sus columnas, todas propias,
+	 * para escribir en ellas. Después hay que llamar a empieza().
+	 * @return - las columnas del tablero, columnas[x][y].
+	 */
+	byte[][] columnasParaEscribir(){
+		for (int x = 0; x < ANCHO; x++) {
+			if (!propias[x]) {
+				columnas[x] = new byte[ALTO];
+				propias[x] = true;
 			}
-		}		
-		LOGGER.fine("Se ha creado un tablero aleatorio de semilla " + semilla);
-		getMapaGrupos();
-		getNGrupos();
+		}
+		return columnas;
+	}
+	/**
+	 * Mtodo auxiliar que pone el tablero al principio de una partida tras
+	 * cambiar todas sus fichas: pasos y puntos a 0, hash recalculado, grupos
+	 * pendientes de adjudicar e historial vacío.
+	 */
+	void empieza(){
+		pasos = 0;
+		puntos = 0;
+		eliminadas = 0;
+		nFichas = -1;
+		hash = calculaHash();
+		invalida();
+		gruposAlDia = false;
+		primeraColumnaCambiada = 0;
+		if (historial != null)
+			historial.olvida();
 	}
 	/**
 	 * Constructor. Las fichas se determinan aleatoriamente.
@@ -85,41 +221,68 @@ public class Tablero {
 	 */
 	public Tablero(Configuracion configuracion){
 		this(System.currentTimeMillis(),configuracion);
-		getMapaGrupos();
-		getNGrupos();
 	}
 	/**
-	 * Constructor. Genera un tablero igual al que se pasa como argumento: lo clona. 
+	 * Constructor. Genera un tablero igual al que se pasa como argumento: lo clona.
+	 * Las columnas no se copian: los dos tableros las comparten hasta que
+	 * uno de ellos escribe en alguna, y sólo entonces la copia. Los grupos
+	 * se adjudican cuando se consultan por primera vez. El historial de
+	 * jugadas no se copia: el clon empieza con uno vacío.
 	 * @param tablero - que se da como argumento para clonarlo
 	 */
 	public Tablero(Tablero tablero){
+		this(tablero, new Historial());
+	}
+	/**
+	 * Constructor auxiliar que utilizan Tablero(Tablero) y copiaYClic().
+	 * @param tablero - que se da como argumento para clonarlo
+	 * @param historial - historial del clon; NULL si no se apuntan las jugadas.
+	 */
+	private Tablero(Tablero tablero, Historial historial){
+		this.historial = historial;
 		ANCHO = tablero.getAncho();
 		ALTO= tablero.getAlto();
-		casillas = new Color [ALTO][ANCHO];
-		for(int x = 0;x<getAncho();x++){
-			for(int y = 0;y<getAlto();y++){
-				this.casillas[x][y]= tablero.casillas[x][y];
-			}
-		}
-		getMapaGrupos();
-		getNGrupos();
+		nColores = tablero.nColores;
+		configuracion = tablero.configuracion;
+		columnas = tablero.columnas.clone();
+		propias = new boolean[ANCHO];
+		Arrays.fill(tablero.propias, false);
+		pasos = tablero.pasos;
+		puntos = tablero.puntos;
+		eliminadas = tablero.eliminadas;
+		nFichas = tablero.nFichas;
+		hash = tablero.hash;
+		firma = tablero.firma;
+		mapaGrupos = tablero.mapaGrupos;
 	}
 	/**
 	 * Constructor. Genera un tablero usando los colores que le llegan como argumento en forma de matriz.
-	 * Si algún término de la matriz es NULL, en el tablero queda como "sin ficha". 
+	 * Si algún término de la matriz es NULL, en el tablero queda como "sin ficha".
 	 * @param colores - mapa de colores: fichas en las casillas.
+	 * @throws IllegalArgumentException si algún color no está en la paleta de Configuracion.
 	 */
 	public Tablero(Color[][] colores){
 		ANCHO = colores.length;
 		ALTO= colores[0].length;
-		casillas = new Color [ALTO][ANCHO];
+		historial = new Historial();
+		creaColumnas();
 		for(int x = 0; x<colores.length;x++){
 			for(int y=0;y<colores[0].length;y++){
-				this.casillas[x][y]= colores[x][y];
+				Color color = colores[x][y];
+				if (color == null) {
+					columnas[x][y] = VACIA;
+				} else {
+					int idx = Configuracion.getIndice(color);
+					if (idx < 0)
+						throw new IllegalArgumentException("color: " + color);
+					columnas[x][y] = (byte) idx;
+					nColores = Math.max(nColores, idx + 1);
+				}
 			}
 		}
-		getMapaGrupos();
-		getNGrupos();
+		configuracion = new Configuracion(ANCHO, ALTO, Math.max(nColores, 2));
+		hash = calculaHash();
+		addGrupos();
 	}
 	/**
 	 * Constructor. Genera un tablero utilizando unos parámetros dados por configuración
@@ -130,154 +293,270 @@ public class Tablero {
 	public Tablero (Configuracion configuracion, String firma) {
 		ANCHO = configuracion.getAncho();
 	    ALTO = configuracion.getAlto();
-	    casillas = new Color[ANCHO][ALTO];
+	    nColores = configuracion.getNColores();
+	    this.configuracion = configuracion;
+	    historial = new Historial();
+	    creaColumnas();
         if (ANCHO * ALTO != firma.length())
             throw new IllegalArgumentException("mkTablero");
         for (int y = 0; y < ALTO; y++)
             for (int x = 0; x < ANCHO; x++) {
                 int i = y * ANCHO + x;
                 char ch = firma.charAt(i);
-                if (ch != '-') {
-                    int idx = ch - 'a';
-                     casillas[x][y] = configuracion.getColor(idx);
-                }
+                if (ch == '-')
+                    columnas[x][y] = VACIA;
+                else
+                    columnas[x][y] = (byte) (ch - 'a');
             }
-        getMapaGrupos();
-        getNGrupos();
+        hash = calculaHash();
+        addGrupos();
     }
+	/**
+	 * Mtodo auxiliar que utilizan los constructores para reservar
+	 * las columnas, todas propias del tablero.
+	 */
+	private void creaColumnas(){
+		columnas = new byte[ANCHO][ALTO];
+		propias = new boolean[ANCHO];
+		Arrays.fill(propias, true);
+	}
+	/**
+	 * Mtodo auxiliar que da una columna en la que se puede escribir:
+	 * si está compartida con otro tablero, antes la copia.
+	 * @param x - columna.
+	 * @return - columnas[x], propia de este tablero.
+	 */
+	private byte[] escribible(int x){
+		if (!propias[x]) {
+			columnas[x] = columnas[x].clone();
+			propias[x] = true;
+		}
+		return columnas[x];
+	}
+	/**
+	 * Número de una casilla fuera de las columnas (grupos, historial, hash): columna a columna.
+	 * @param x - posición a lo ancho, contando desde la izquierda.
+	 * @param y - posición a lo alto, contando desde arriba.
+	 * @return - número de la casilla, x * ALTO + y.
+	 */
+	private int indice(int x, int y){
+		return x * ALTO + y;
+	}
 	/**
 	 * Getter: devuelve el color de la ficha en la casilla indicada.
 	 * @param x - posicin a lo ancho, contando desde la izquierda.
-	 * @param y - posicin a lo alto, contando desde arriba. 
+	 * @param y - posicin a lo alto, contando desde arriba.
 	 * @return - color de la ficha en esa posicin. NULL si la casilla est vaca.
 	 */
 	public Color getCasilla(int x, int y){
-		Color color=null;
-		for(int i = 0;i< ANCHO;i++){
-			for(int j =0;j< ALTO;j++ ){
-				if( (i==x) && (j==y))
-					color = casillas[x][y]; 
-			}
+		int idx = columnas[x][y];
+		if (idx == VACIA)
+			return null;
+		return configuracion.getColor(idx);
+	}
+	/**
+	 * Getter: devuelve el índice de color de la ficha en la casilla indicada,
+	 * tal y como lo numera Configuracion.getColor(indice).
+	 * @param x - posición a lo ancho, contando desde la izquierda.
+	 * @param y - posición a lo alto, contando desde arriba.
+	 * @return - índice de color de la ficha en esa posición. VACIA si la casilla está vacía.
+	 */
+	public int getIndiceColor(int x, int y){
+		return columnas[x][y];
+	}
+	/**
+	 * Copia de una vez todas las casillas del tablero como índices de color,
+	 * fila a fila y en el mismo orden que la firma: la casilla (x, y) va a
+	 * destino[y * getAncho() + x]. Las casillas sin ficha quedan como VACIA.
+	 * No reserva memoria: el llamante puede reutilizar el mismo array.
+	 * @param destino - array de al menos getAncho() * getAlto() posiciones.
+	 * @throws IllegalArgumentException si destino es demasiado pequeño.
+	 */
+	public void copiaCasillas(int[] destino){
+		if (destino.length < ANCHO * ALTO)
+			throw new IllegalArgumentException("copiaCasillas: " + destino.length + " < " + ANCHO * ALTO);
+		for (int x = 0; x < ANCHO; x++) {
+			byte[] columna = columnas[x];
+			for (int y = 0; y < ALTO; y++)
+				destino[y * ANCHO + x] = columna[y];
 		}
-		return color;
 	}
 	/**
-	 * Mtodo auxiliar que utiliza getMapaGrupos() para adjudicar los grupos
-	 * al tablero, mirando si la casilla de la izquierda o la de encima tiene
-	 * el mismo color.
+	 * Mtodo auxiliar que adjudica los grupos al tablero, mirando si la
+	 * casilla de la izquierda o la de encima tiene el mismo color.
+	 * El recorrido lo hace Etiquetador, sin recursión.
 	 *
 	 */
 	private void addGrupos(){
-		grupos =new int[ANCHO][ALTO];
-		Color color;
-		nGrupos = 1;
-		for (int x = 0; x < ANCHO; x++){
-	        for (int y = 0; y < ALTO; y++){
-	        	grupos[x][y] = 0;
-	        }
-		}
-		for (int x = 0 ; x<ANCHO ; x++){
-			for (int y = ALTO-1 ; y >=0; y--){
-	        	color = casillas[x][y];
-	        		if((x>0) && (casillas[x-1][y]==color && grupos[x][y] == 0 && casillas [x][y] != null)){
-	        			marca(x,y,color,nGrupos);
-	        			nGrupos++;
-	        		}else if((y>0) && (casillas[x][y-1]==color && grupos[x][y] == 0 && casillas[x][y]!=null)){
-	        			marca(x,y,color,nGrupos);
-	        			nGrupos++;
-	        		}
-	        	}
-	        }
-		nGrupos = nGrupos - 1;
-		LOGGER.info("Grupos " + nGrupos);
-	}
-	/**
-	 * Mtodo auxiliar recursivo que utiliza addGrupos() para dar un nmero de grupo
-	 * a todas las casillas juntas con el mismo color.
-	 * @param x - posicin a lo ancho, contando desde la izquierda.
-	 * @param y - posicin a lo alto, contando desde arriba. 
-	 * @param color - color que se da como argumento para comparar
-	 * @param grupo - grupo que se va a adjudicar a las casillas
-	 */
-	private void marca(int x, int y, Color color, int grupo) {
-		grupos[x][y] = grupo;
-		if(x>0 && (casillas[x-1][y] == color && grupos[x-1][y] == 0))
-			marca(x-1,y,color,grupo);
-		if(x+1<ANCHO && (casillas[x+1][y] == color && grupos[x+1][y] == 0))
-			marca(x+1,y,color,grupo);
-		if(y >0 && (casillas[x][y-1] == color && grupos[x][y-1] == 0))
-			marca(x,y-1,color,grupo);
-		if(y +1 <ALTO && (casillas[x][y+1] == color && grupos[x][y+1] == 0))
-			marca(x,y+1,color,grupo);
-	}
-	/**
-	 * Devuelve en forma de String el tablero mostrando a qu 
-	 * grupo pertenece cada casilla. Las casillas vacas o con 
-	 * fichas independientes aparecen como '0'. Las dems posiciones, 
-	 * con el nmero del grupo.Adjudicndose los grupos mediante los 
-	 * mtodos addGrupos() y marca().
+		if (etiquetador == null)
+			etiquetador = new Etiquetador(ANCHO, ALTO);
+		nGrupos = etiquetador.etiqueta(columnas);
+		gruposAlDia = true;
+		if (LOGGER.inAny(Logger.FINE))
+			LOGGER.fine("Grupos " + nGrupos);
+	}
+	/**
+	 * Mtodo auxiliar que da el etiquetador con los grupos al día:
+	 * si el tablero viene de una copia y aún no se han adjudicado, los adjudica.
+	 * @return - etiquetador con los grupos de las fichas actuales.
+	 */
+	private Etiquetador grupos(){
+		if (!gruposAlDia)
+			addGrupos();
+		return etiquetador;
+	}
+	/**
+	 * Mtodo auxiliar que utiliza clic() para volver a adjudicar los grupos
+	 * tras una jugada, recorriendo sólo las columnas que han podido cambiar.
+	 * @param desdeColumna - primera columna que ha cambiado con la jugada.
+	 */
+	private void actualizaGrupos(int desdeColumna){
+		nGrupos = etiquetador.reetiqueta(columnas, desdeColumna);
+		if (LOGGER.inAny(Logger.FINE))
+			LOGGER.fine("Grupos " + nGrupos);
+	}
+	/**
+	 * Devuelve en forma de String el tablero mostrando a qu
+	 * grupo pertenece cada casilla. Las casillas vacas o con
+	 * fichas independientes aparecen como '0'. Las dems posiciones,
+	 * con el nmero del grupo, según los adjudicó addGrupos().
+	 * Se calcula la primera vez que se pide y se guarda hasta que el tablero cambia.
 	 * @return mapa de grupos
 	 */
 	public String getMapaGrupos(){
-		grupos =new int[ANCHO][ALTO];
-		addGrupos();
-		String mapa = "Mapa de grupos:";
-		String valor;
-		mapa += "\n";
-		for(int j=0;j< ALTO;j++){
-			for(int i=0;i< ANCHO; i++){
-				if((i+1 == ANCHO) && (j+1 == ALTO)){
-					valor=String.valueOf(grupos[i][j]);
-					mapa += valor;
-					break;
-				}
-				if((i+1) == ANCHO){
-					valor=String.valueOf(grupos[i][j]);
-					mapa += valor + "\n";
-					break;
-				}
-				if(i < ANCHO){
-					valor=String.valueOf(grupos[i][j]);
-					mapa += valor + " ";
+		if (mapaGrupos == null) {
+			StringBuilder sb = buffer(16 + ANCHO * ALTO * 3);
+			sb.append("Mapa de grupos:\n");
+			for(int j=0;j< ALTO;j++){
+				if (j > 0)
+					sb.append('\n');
+				for(int i=0;i< ANCHO; i++){
+					if (i > 0)
+						sb.append(' ');
+					sb.append(grupos().getGrupo(indice(i, j)));
 				}
 			}
+			mapaGrupos = sb.toString();
 		}
-		return mapa;
-	}
-	 /**
-	  * Mtodo auxiliar recursivo que utiliza clic() para hacer
-	  * caer las fichas cuando se hace "click" en una casilla que
-	  * pertenece a un grupo.
-	  * @param x - posicin a lo ancho, contando desde la izquierda.
-	  * @param y - posicin a lo alto, contando desde arriba. 
-	  */
-	private void caer(int x,int y){
-		if ( y-1 >= 0 && casillas[x][y] == null){
-		casillas[x][y] = casillas [x][y-1];
-		casillas[x][y-1] = null;
-		caer(x,y-1);
-		}else{
-			casillas[x][y] = casillas[x][y];
-		}
+		return mapaGrupos;
 	}
 	/**
-	 * Mtodo auxiliar que utiliza clic() para desplazar
-	 * las fichas horizontalmente hacia la izquierda cuando
-	 * se hace "click" en una casilla que pertenece a un grupo.
-	 * @param x - posicin a lo ancho, contando desde la izquierda.
-	 * @param y - posicin a lo alto, contando desde arriba. 
+	 * Mtodo auxiliar que da el buffer en el que se componen la firma
+	 * y el mapa de grupos; se reutiliza de una llamada a otra.
+	 * @param capacidad - caracteres que se espera escribir.
+	 * @return - buffer vacío.
+	 */
+	private StringBuilder buffer(int capacidad){
+		if (buffer == null)
+			buffer = new StringBuilder(capacidad);
+		buffer.setLength(0);
+		buffer.ensureCapacity(capacidad);
+		return buffer;
+	}
+	/**
+	 * Mtodo auxiliar que descarta la firma y el mapa de grupos calculados:
+	 * el tablero ha cambiado.
+	 */
+	private void invalida(){
+		firma = null;
+		mapaGrupos = null;
+	}
+	/**
+	 * Mtodo auxiliar que utiliza clic() para hacer caer las fichas y
+	 * desplazar las columnas vacías hacia la derecha, tras eliminar un grupo.
+	 * Cada columna se compacta de abajo arriba con un puntero de lectura y
+	 * otro de escritura; después las columnas con fichas se juntan a la
+	 * izquierda en un solo barrido, intercambiando sólo las referencias a
+	 * cada columna: las vacías quedan a la derecha y se siguen pudiendo
+	 * usar, sin reservar memoria. Las columnas anteriores a desdeColumna no
+	 * han cambiado y no se tocan. Las columnas de desdeColumna a hastaColumna
+	 * ya deben ser propias.
+	 * Deja en origenColumnas de qué columna viene cada una, y actualiza
+	 * el hash con cada ficha que cambia de casilla. Si hay historial, apunta
+	 * las columnas que quedan vacías.
+	 * @param desdeColumna - primera columna con fichas eliminadas.
+	 * @param hastaColumna - última columna con fichas eliminadas.
+	 * @return - número de columnas que tenían fichas antes de la jugada.
 	 */
-	private void desplazar (int x,int y){
-		if(x+1<ANCHO && casillas[x][y]==null){
-			for(int j =0;j<ALTO;j++){
-				casillas[x][j] = casillas [x+1][j];
-				casillas [x+1][j] = null;
+	private int compacta(int desdeColumna, int hastaColumna){
+		if (origenColumnas == null)
+			origenColumnas = new int[ANCHO];
+		for (int x = 0; x < desdeColumna; x++)
+			origenColumnas[x] = x;
+		for (int x = desdeColumna; x <= hastaColumna; x++) {
+			byte[] columna = columnas[x];
+			int base = x * ALTO;
+			int escribe = ALTO - 1;
+			for (int lee = escribe; lee >= 0; lee--) {
+				byte color = columna[lee];
+				if (color == VACIA)
+					continue;
+				if (lee != escribe)
+					hash ^= clave(base + lee, color) ^ clave(base + escribe, color);
+				columna[escribe--] = color;
 			}
+			for (; escribe >= 0; escribe--)
+				columna[escribe] = VACIA;
 		}
-		x--;
-		LOGGER.info("X VALE "  + x);
-		if(x >=0 )
-			desplazar(x,ALTO-1);
+		int escribe = desdeColumna;
+		int vaciadas = 0;
+		for (int lee = desdeColumna; lee < ANCHO; lee++) {
+			byte[] columna = columnas[lee];
+			if (columna[ALTO-1] == VACIA) {
+				if (lee <= hastaColumna) {
+					vaciadas++;
+					if (historial != null)
+						historial.anadeVaciada(lee);
+				}
+				continue;
+			}
+			if (lee != escribe) {
+				int base = lee * ALTO;
+				int desplazamiento = (lee - escribe) * ALTO;
+				for (int y = ALTO - 1; y >= 0 && columna[y] != VACIA; y--)
+					hash ^= clave(base + y, columna[y]) ^ clave(base + y - desplazamiento, columna[y]);
+				intercambia(escribe, lee);
+			}
+			origenColumnas[escribe++] = lee;
+		}
+		int conFichas = escribe + vaciadas;
+		for (; escribe < ANCHO; escribe++)
+			origenColumnas[escribe] = -1;
+		primeraColumnaCambiada = desdeColumna;
+		return conFichas;
+	}
+	/**
+	 * Mtodo auxiliar que intercambia dos columnas, con su propiedad.
+	 * @param a - una columna.
+	 * @param b - otra columna.
+	 */
+	private void intercambia(int a, int b){
+		byte[] columna = columnas[a];
+		columnas[a] = columnas[b];
+		columnas[b] = columna;
+		boolean propia = propias[a];
+		propias[a] = propias[b];
+		propias[b] = propia;
+	}
+	/**
+	 * Tras el último clic (o deshacer o rehacer), indica de qué columna viene cada columna:
+	 * permite repintar o recalcular sólo lo que se ha movido.
+	 * @param x - columna tras el clic.
+	 * @return - columna que ocupaba antes del clic; -1 si ha quedado vacía
+	 * (o, tras deshacer, si se ha rehecho a partir de las fichas eliminadas).
+	 */
+	public int getColumnaOrigen(int x){
+		if (origenColumnas == null || x < primeraColumnaCambiada)
+			return x;
+		return origenColumnas[x];
+	}
+	/**
+	 * Tras el último clic, primera columna que ha cambiado.
+	 * Las columnas a su izquierda siguen igual.
+	 * @return - primera columna cambiada; getAncho() si el clic no cambió nada.
+	 */
+	public int getPrimeraColumnaCambiada(){
+		return primeraColumnaCambiada;
 	}
 	/**
 	 * Getter. Devuelve el ancho del tablero.
@@ -295,89 +574,431 @@ public class Tablero {
 	}
 	/**
 	 * Cuenta el nmero de fichas que quedan en el tablero.
+	 * Se cuentan la primera vez y luego se llevan al día en cada jugada.
 	 * @return - nmero de fichas que quedan en el tablero.
 	 */
 	public int getNFichas(){
-		Color color = null;
-		int nFichas = 0;
+		if (nFichas < 0) {
+			nFichas = 0;
+			for(int x=0;x<ANCHO;x++){
+				byte[] columna = columnas[x];
+				for(int y=0;y<ALTO;y++)
+					if(columna[y] != VACIA)
+						nFichas++;
+			}
+		}
+		return nFichas;
+	}
+	/**
+	 * Cuenta las fichas que quedan de cada color, sin reservar memoria.
+	 * @param cuenta - array de al menos getNColores() posiciones; cuenta[c]
+	 * queda con el número de fichas de índice de color c.
+	 */
+	public void cuentaColores(int[] cuenta){
+		Arrays.fill(cuenta, 0, nColores, 0);
 		for(int x=0;x<ANCHO;x++){
-			for(int y=0;y<ALTO;y++){
-				color = casillas[x][y];
-				if(color != null)
-					nFichas++;
+			byte[] columna = columnas[x];
+			for(int y=0;y<ALTO;y++)
+				if(columna[y] != VACIA)
+					cuenta[columna[y]]++;
 		}
 	}
-		return nFichas;
+	/**
+	 * Getter. Devuelve el número de colores con los que se creó el tablero.
+	 * @return - número de colores; los índices de color van de 0 a getNColores() - 1.
+	 */
+	public int getNColores(){
+		return nColores;
 	}
 	/**
 	 * Regla para calcular los puntos sabiendo las fichas que eliminamos.
-	 * Concretamente, usaremos "n * (n-1)" siendo "n" el nmero de fichas que se eliminan. 
+	 * Concretamente, usaremos "n * (n-1)" siendo "n" el nmero de fichas que se eliminan.
+	 * Los puntos de la jugada se suman a los acumulados, sin pasar de Integer.MAX_VALUE.
 	 * @param eliminadas - fichas que eliminamos.
 	 */
 	public void puntuacion(int eliminadas){
-		puntos = eliminadas*(eliminadas-1);
+		puntos = (int) Math.min((long) puntos + valorJugada(eliminadas), Integer.MAX_VALUE);
 	}
 	/**
-	 * Averigua las posiciones de las fichas que pertenecen a un cierto grupo.
+	 * Puntos que da una jugada: "n * (n-1)" siendo "n" el nmero de fichas que se eliminan.
+	 * En un tablero grande un grupo puede pasar de 46341 fichas: los puntos
+	 * se quedan entonces en Integer.MAX_VALUE.
+	 * @param eliminadas - fichas que se eliminan.
+	 * @return - puntos de la jugada.
+	 */
+	public static int valorJugada(int eliminadas){
+		return (int) Math.min((long) eliminadas*(eliminadas-1), Integer.MAX_VALUE);
+	}
+	/**
+	 * Enumera las jugadas posibles sin reservar memoria: una por grupo,
+	 * en orden de grupo. Para cada una deja en el array dos valores seguidos:
+	 * la casilla en la que hacer clic, empaquetada como x * getAlto() + y,
+	 * y los puntos que daría, "n * (n-1)".
+	 * @param jugadas - array de al menos 2 * getNGrupos() posiciones.
+	 * @return - número de jugadas, que es getNGrupos().
+	 * @throws IllegalArgumentException si el array es demasiado pequeño.
+	 */
+	public int getJugadas(int[] jugadas){
+		Etiquetador etiquetador = grupos();
+		if (jugadas.length < 2 * nGrupos)
+			throw new IllegalArgumentException("getJugadas: " + jugadas.length + " < " + 2 * nGrupos);
+		for (int g = 1; g <= nGrupos; g++) {
+			jugadas[2 * g - 2] = etiquetador.getArranque(g);
+			jugadas[2 * g - 1] = valorJugada(etiquetador.getTamano(g));
+		}
+		return nGrupos;
+	}
+	/**
+	 * Averigua las posiciones de las fichas que pertenecen a un cierto grupo,
+	 * columna a columna y de arriba abajo.
+	 * Para un grupo de verdad sólo recorre sus fichas; para el grupo 0
+	 * (fichas aisladas y casillas vacías) recorre el tablero.
 	 * @param grupo - grupo que nos interesa.
 	 * @return lista de posiciones pertenecientes al grupo.
 	 */
 	public java.util.List<Coordenadas> getFichasDelGrupo(int grupo){
 		List<Coordenadas> fichas = new ArrayList<Coordenadas>();
-		for(int x=0;x<ANCHO;x++){
-			for(int y=0;y<ALTO;y++){
-				if( grupos[x][y] == grupo)
-					fichas.add(new Coordenadas(x,y));
+		Etiquetador etiquetador = grupos();
+		if (grupo == 0) {
+			for(int x=0;x<ANCHO;x++){
+				for(int y=0;y<ALTO;y++){
+					if( etiquetador.getGrupo(indice(x, y)) == grupo)
+						fichas.add(new Coordenadas(x,y));
+				}
 			}
+		} else if (grupo > 0 && grupo <= nGrupos) {
+			int[] celdas = new int[etiquetador.getTamano(grupo)];
+			copiaFichasDelGrupo(grupo, celdas);
+			Arrays.sort(celdas);
+			for (int c : celdas)
+				fichas.add(new Coordenadas(c / ALTO, c % ALTO));
 		}
 		return fichas;
 	}
 	/**
-	 * Averigua a qu grupo pertenece una cierta posicin. 
+	 * Copia las casillas de un grupo, empaquetadas como x * getAlto() + y,
+	 * sin reservar memoria. El orden no está fijado.
+	 * @param grupo - grupo que nos interesa, entre 1 y getNGrupos().
+	 * @param destino - array de al menos getTamanoGrupo(grupo) posiciones.
+	 * @return número de casillas copiadas.
+	 */
+	public int copiaFichasDelGrupo(int grupo, int[] destino){
+		Etiquetador etiquetador = grupos();
+		int inicio = etiquetador.getInicio(grupo);
+		int tamano = etiquetador.getTamano(grupo);
+		for (int k = 0; k < tamano; k++)
+			destino[k] = etiquetador.getMiembro(inicio + k);
+		return tamano;
+	}
+	/**
+	 * Número de fichas de un grupo.
+	 * @param grupo - grupo que nos interesa, entre 1 y getNGrupos().
+	 * @return - fichas del grupo.
+	 */
+	public int getTamanoGrupo(int grupo){
+		return grupos().getTamano(grupo);
+	}
+	/**
+	 * Índice de color de las fichas de un grupo.
+	 * @param grupo - grupo que nos interesa, entre 1 y getNGrupos().
+	 * @return - índice de color, como en getIndiceColor().
+	 */
+	public int getColorGrupo(int grupo){
+		return grupos().getColor(grupo);
+	}
+	/**
+	 * Una casilla cualquiera del grupo, empaquetada como x * getAlto() + y:
+	 * hacer clic en ella elimina el grupo.
+	 * @param grupo - grupo que nos interesa, entre 1 y getNGrupos().
+	 * @return - casilla representante del grupo.
+	 */
+	public int getRepresentanteGrupo(int grupo){
+		return grupos().getArranque(grupo);
+	}
+	/**
+	 * Busca el grupo con más fichas, sin recorrer el tablero.
+	 * Si hay empate, el de menor número.
+	 * @return - grupo con más fichas; 0 si no hay grupos.
+	 */
+	public int getGrupoMayor(){
+		Etiquetador etiquetador = grupos();
+		int mayor = 0;
+		int tamano = 0;
+		for (int g = 1; g <= nGrupos; g++) {
+			if (etiquetador.getTamano(g) > tamano) {
+				mayor = g;
+				tamano = etiquetador.getTamano(g);
+			}
+		}
+		return mayor;
+	}
+	/**
+	 * Averigua qué grupos son de un cierto color, sin recorrer el tablero.
+	 * @param color - índice de color que nos interesa.
+	 * @return - números de los grupos de ese color, de menor a mayor.
+	 */
+	public int[] getGruposDeColor(int color){
+		Etiquetador etiquetador = grupos();
+		int n = 0;
+		for (int g = 1; g <= nGrupos; g++)
+			if (etiquetador.getColor(g) == color)
+				n++;
+		int[] resultado = new int[n];
+		n = 0;
+		for (int g = 1; g <= nGrupos; g++)
+			if (etiquetador.getColor(g) == color)
+				resultado[n++] = g;
+		return resultado;
+	}
+	/**
+	 * Averigua a qu grupo pertenece una cierta posicin.
 	 * @param x - Coordenada X de la posicin que nos interesa.
 	 * @param y - Coordenada Y de la posicin que nos interesa.
 	 * @return - grupo al que pertenece.
 	 */
 	public int getGrupo(int x, int y){
-		int grupo;
-		grupo = grupos[x][y];
-		return grupo;
+		return grupos().getGrupo(indice(x, y));
 	}
+	/**
+	 * número de fichas eliminadas en todo el juego
+	 */
 	int eliminadas = 0;
 	/**
-	 * Hace "click" en una casilla y se eliminan las fichas del grupo. 
+	 * Hace "click" en una casilla y se eliminan las fichas del grupo.
 	 * @param x - posicin x de la casilla en la que hacemos click.
 	 * @param y - posicin y de la casilla en la que hacemos click.
 	 */
 	public void clic(int x,int y){
-		LOGGER.fine("Se ha hecho clic en la posicin( " + x + "," + y + ")");
+		if (LOGGER.inAny(Logger.FINE))
+			LOGGER.fine("Se ha hecho clic en la posicin( " + x + "," + y + ")");
+		if (juega(x, y) && historial != null)
+			historial.olvidaRehacer();
+	}
+	/**
+	 * Mtodo auxiliar que utiliza clic() y rehacer() para eliminar
+	 * el grupo de una casilla, apuntando la jugada en el historial.
+	 * En un tablero grande sin los grupos al día no los adjudica: busca
+	 * sólo el grupo de la casilla, con un coste proporcional a sus fichas.
+	 * @param x - posicin x de la casilla en la que hacemos click.
+	 * @param y - posicin y de la casilla en la que hacemos click.
+	 * @return - TRUE si se ha eliminado un grupo.
+	 */
+	private boolean juega(int x, int y){
+		primeraColumnaCambiada = ANCHO;
+		if (!gruposAlDia && ANCHO * ALTO >= CASILLAS_TABLERO_GRANDE) {
+			// tablero grande sin grupos al día: basta con el grupo de la casilla
+			if (etiquetador == null)
+				etiquetador = new Etiquetador(ANCHO, ALTO);
+			if (etiquetador.aisla(columnas, indice(x, y)) == 0)
+				return false;
+			elimina(etiquetador, 1, indice(x, y));
+			return true;
+		}
 		int g = getGrupo(x,y);
-		if (grupos [x][y] != 0){
-			casillas[x][y]= null;
-			LOGGER.info("grupo" + grupos[x][y]);
-			for(int a=0;a<ANCHO;a++){
-				for(int b=0;b<ALTO;b++){
-					if( grupos[a][b] == g){
-						casillas[a][b]=null;
-						eliminadas++;
-					}
-				}
+		if (g == 0)
+			return false;
+		elimina(etiquetador, g, indice(x, y));
+		return true;
+	}
+	/**
+	 * Crea una copia del tablero y hace "click" en ella, sin tocar este.
+	 * La copia comparte con este tablero las columnas que la jugada no
+	 * cambia, y sólo copia las que cambian: es barata de crear, para
+	 * explorar muchas jugadas desde una misma posición.
+	 * La copia no lleva historial, y adjudica sus grupos cuando se
+	 * consultan por primera vez.
+	 * No es seguro crear copias de un mismo tablero desde varios hilos a la vez.
+	 * @param x - posicin x de la casilla en la que hacemos click.
+	 * @param y - posicin y de la casilla en la que hacemos click.
+	 * @return - tablero tras la jugada; igual que este si la casilla no es de ningún grupo.
+	 */
+	public Tablero copiaYClic(int x, int y){
+		int g = getGrupo(x, y);
+		Tablero hijo = new Tablero(this, null);
+		hijo.primeraColumnaCambiada = ANCHO;
+		if (g != 0)
+			hijo.elimina(etiquetador, g, indice(x, y));
+		return hijo;
+	}
+	/**
+	 * Pone en este tablero las mismas fichas, pasos y puntos que en otro
+	 * del mismo tamaño, reutilizando las columnas de este: una vez que
+	 * todas son propias, no reserva memoria. Sirve para repetir muchas
+	 * partidas simuladas desde una misma posición con un solo tablero.
+	 * Los grupos se adjudican cuando se consultan por primera vez, y el
+	 * historial de jugadas, si lo hay, se vacía.
+	 * @param origen - tablero que se copia; no cambia.
+	 * @throws IllegalArgumentException si los tableros no son del mismo tamaño.
+	 */
+	public void copiaDe(Tablero origen){
+		if (origen.ANCHO != ANCHO || origen.ALTO != ALTO)
+			throw new IllegalArgumentException("copiaDe: " + origen.ANCHO + "x" + origen.ALTO);
+		for (int x = 0; x < ANCHO; x++) {
+			if (!propias[x]) {
+				columnas[x] = new byte[ALTO];
+				propias[x] = true;
 			}
-			for(int i = 0;i<ANCHO;i++){
-				for ( int j = 0 ; j<ALTO;j++){
-					if(casillas[i][j]==null && j>0)
-						caer(i,j);
-				}
+			System.arraycopy(origen.columnas[x], 0, columnas[x], 0, ALTO);
+		}
+		pasos = origen.pasos;
+		puntos = origen.puntos;
+		eliminadas = origen.eliminadas;
+		nFichas = origen.nFichas;
+		hash = origen.hash;
+		firma = origen.firma;
+		mapaGrupos = origen.mapaGrupos;
+		gruposAlDia = false;
+		primeraColumnaCambiada = 0;
+		if (historial != null)
+			historial.olvida();
+	}
+	/**
+	 * Mtodo auxiliar que utilizan juega() y copiaYClic() para eliminar un grupo,
+	 * apuntando la jugada en el historial.
+	 * @param grupos - etiquetador con los grupos de las fichas actuales: el de
+	 * este tablero o, en una copia, el del tablero original.
+	 * @param g - grupo que se elimina.
+	 * @param celda - casilla en la que se ha hecho click (x * ALTO + y).
+	 */
+	private void elimina(Etiquetador grupos, int g, int celda){
+		if (LOGGER.inAny(Logger.FINE))
+			LOGGER.fine("grupo" + g);
+		int desdeColumna = ANCHO;
+		int hastaColumna = -1;
+		int inicio = grupos.getInicio(g);
+		int tamano = grupos.getTamano(g);
+		int fin = inicio + tamano;
+		long hashAntes = hash;
+		for(int k=inicio;k<fin;k++){
+			int i = grupos.getMiembro(k);
+			int x = i / ALTO;
+			byte[] columna = escribible(x);
+			hash ^= clave(i, columna[i - x * ALTO]);
+			columna[i - x * ALTO]=VACIA;
+			desdeColumna = Math.min(desdeColumna, x);
+			hastaColumna = Math.max(hastaColumna, x);
+		}
+		if (historial != null) {
+			historial.abre(celda, grupos.getColor(g), pasos, puntos, hashAntes, desdeColumna);
+			for(int k=inicio;k<fin;k++)
+				historial.anadeEliminada(grupos.getMiembro(k));
+			historial.cierraEliminadas();
+		}
+		eliminadas += tamano;
+		if (nFichas >= 0)
+			nFichas -= tamano;
+		int columnas = compacta(desdeColumna, hastaColumna);
+		if (historial != null)
+			historial.cierra(columnas);
+		invalida();
+		pasos++;
+		if (grupos == etiquetador && ANCHO * ALTO < CASILLAS_TABLERO_GRANDE)
+			actualizaGrupos(desdeColumna);
+		else
+			gruposAlDia = false;
+		puntuacion(tamano);
+	}
+	/**
+	 * Deshace la última jugada, con un coste proporcional a lo que cambió
+	 * en ella: vuelve a abrir las columnas que quedaron vacías, devuelve
+	 * las fichas eliminadas a su sitio y recupera pasos, puntos y hash.
+	 * @return - TRUE si había una jugada que deshacer.
+	 */
+	public boolean deshacer(){
+		if (!puedeDeshacer())
+			return false;
+		int r = historial.ultima();
+		int desde = historial.getDesde(r);
+		int conFichas = historial.getColumnas(r);
+		byte color = (byte) historial.getColor(r);
+		if (origenColumnas == null)
+			origenColumnas = new int[ANCHO];
+		for (int x = conFichas; x < ANCHO; x++)
+			origenColumnas[x] = -1;
+		int v = historial.getNVaciadas(r) - 1;
+		int lee = conFichas - v - 2;
+		for (int x = conFichas - 1; x >= desde; x--) {
+			// entre lee y x sólo hay columnas vacías
+			if (v >= 0 && historial.getVaciada(r, v) == x) {
+				origenColumnas[x] = -1;
+				v--;
+			} else {
+				if (lee != x)
+					intercambia(x, lee);
+				origenColumnas[x] = lee--;
 			}
-			for(int i = 0;i<ANCHO;i++){
-				if (casillas[i][ALTO-1]== null)
-					desplazar(i,ALTO-1);
+		}
+		int n = historial.getNEliminadas(r);
+		for (int k = 0; k < n; ) {
+			int x = historial.getEliminada(r, k) / ALTO;
+			int fin = k;
+			while (fin < n && historial.getEliminada(r, fin) / ALTO == x)
+				fin++;
+			int base = x * ALTO;
+			byte[] columna = escribible(x);
+			int quedan = 0;
+			while (quedan < ALTO && columna[ALTO - 1 - quedan] != VACIA)
+				quedan++;
+			int fichas = ALTO - quedan;
+			for (int y = ALTO - quedan - (fin - k); y < ALTO; y++) {
+				if (k < fin && historial.getEliminada(r, k) == base + y) {
+					columna[y] = color;
+					k++;
+				} else {
+					columna[y] = columna[fichas++];
+				}
 			}
-			if (casillas[x][y] != null || grupos[x][y] != 0)
-				pasos++;
-			getMapaGrupos();
-			puntuacion(eliminadas);
 		}
+		eliminadas -= n;
+		if (nFichas >= 0)
+			nFichas += n;
+		pasos = historial.getPasos(r);
+		puntos = historial.getPuntos(r);
+		hash = historial.getHash(r);
+		historial.deshace();
+		invalida();
+		primeraColumnaCambiada = desde;
+		if (gruposAlDia && ANCHO * ALTO < CASILLAS_TABLERO_GRANDE)
+			actualizaGrupos(desde);
+		else
+			gruposAlDia = false;
+		return true;
+	}
+	/**
+	 * Vuelve a hacer la última jugada deshecha.
+	 * @return - TRUE si había una jugada que rehacer.
+	 */
+	public boolean rehacer(){
+		if (!puedeRehacer())
+			return false;
+		int celda = historial.sacaRehacer();
+		juega(celda / ALTO, celda % ALTO);
+		return true;
+	}
+	/**
+	 * @return - TRUE si hay jugadas que deshacer.
+	 */
+	public boolean puedeDeshacer(){
+		return historial != null && historial.getNJugadas() > 0;
+	}
+	/**
+	 * @return - TRUE si hay jugadas deshechas que rehacer.
+	 */
+	public boolean puedeRehacer(){
+		return historial != null && historial.getNRehacer() > 0;
+	}
+	/**
+	 * Activa o desactiva el historial de jugadas. Sin historial no se puede
+	 * deshacer ni rehacer, pero cada clic es algo más barato: conviene a
+	 * quien juega muchas partidas seguidas sin mirar atrás.
+	 * Al desactivarlo se olvidan las jugadas apuntadas.
+	 * @param activo - TRUE para apuntar las jugadas.
+	 */
+	public void setHistorial(boolean activo){
+		if (!activo)
+			historial = null;
+		else if (historial == null)
+			historial = new Historial();
 	}
 	/**
 	 * Averigua a qu grupo pertenece una cierta posicin.
@@ -385,83 +1006,90 @@ public class Tablero {
 	 * @return grupo al que pertenece.
 	 */
 	public int getGrupo(Coordenadas coordenadas){
-		int grupo;
-		int x =coordenadas.getX();
-		int y = coordenadas.getY();
-		grupo = grupos[x][y];
-		return grupo;
+		return getGrupo(coordenadas.getX(), coordenadas.getY());
 	}
 	/**
 	 * Hace "click" en una casilla y se eliminan las fichas del grupo.
 	 * @param coordenadas - casilla en la que hacemos "click".
 	 */
 	public void clic(Coordenadas coordenadas){
-		int x = coordenadas.getX();
-		int y = coordenadas.getY();
-		LOGGER.fine("Se ha hecho clic en la posicin(" + x + "," + y + ")");
-		int g = getGrupo(x,y);
-		if (grupos [x][y] != 0){
-			casillas[x][y]= null;
-			LOGGER.info("grupo" + grupos[x][y]);
-			for(int a=0;a<ANCHO;a++){
-				for(int b=0;b<ALTO;b++){
-					if( grupos[a][b] == g){
-						casillas[a][b]=null;
-						eliminadas++;
-					}
-				}
-			}
-			for(int i = 0;i<ANCHO;i++){
-				for ( int j = 0 ; j<ALTO;j++){
-					if(casillas[i][j]==null && j>0)
-						caer(i,j);
-				}
-			}
-			for(int i = 0;i<ANCHO;i++){
-				if (casillas[i][ALTO-1]== null)
-					desplazar(i,ALTO-1);
-			}
-			if (casillas[x][y] != null || grupos[x][y] != 0)
-				pasos++;
-			getMapaGrupos();
-			puntuacion(eliminadas);
-		}
+		clic(coordenadas.getX(), coordenadas.getY());
 	}
 	/**
 	 * Genera una cadena de caracteres que es una representacin supercompacta
 	 * de las fichas en el tablero. Concretamente, la cadena de caracteres:
      *  -tiene tantos caracteres como casillas: un caracter por cada casilla
      *  -el carcter asociado a una casilla sin ficha ser '-'
-     *  -el carcter asociado a una casilla coloreada ser 'a' para el primer color, 
-     *  'b' para el segundo, y as sucesivamente; el orden de los colores es el ndice 
-     *  devuelto por Configuracion.getIndice(color). 
+     *  -el carcter asociado a una casilla coloreada ser 'a' para el primer color,
+     *  'b' para el segundo, y as sucesivamente; el orden de los colores es el ndice
+     *  devuelto por Configuracion.getIndice(color).
+	 * Se calcula la primera vez que se pide y se guarda hasta que el tablero cambia.
 	 * @return cadena nica que representa al tablero a todos los efectos.
 	 */
 	public String getFirma(){
-		String firma = "";
-		Color colour;
-		String letra;
-		String [] letras = {"a","b","c","d","e","f","g","h","i","j"};
-		for(int y=0;y<ALTO;y++){
-			for(int x = 0;x<ANCHO;x++){
-				colour = casillas[x][y];
-				if(casillas[x][y]==null){
-					firma += "-";
-				}else{
-					letra = letras[Configuracion.getIndice(colour)];
-					firma += letra;
+		if (firma == null) {
+			StringBuilder sb = buffer(ANCHO * ALTO);
+			for(int y=0;y<ALTO;y++){
+				for(int x = 0;x<ANCHO;x++){
+					int idx = columnas[x][y];
+					if(idx==VACIA){
+						sb.append('-');
+					}else{
+						sb.append((char) ('a' + idx));
+					}
 				}
 			}
+			firma = sb.toString();
 		}
 		return firma;
 	}
+	/**
+	 * Devuelve un hash de 64 bits de las fichas del tablero, al estilo de Zobrist:
+	 * el XOR de una clave pseudoaleatoria por cada par (casilla, color).
+	 * Se actualiza en cada clic con las fichas que se eliminan, caen o se
+	 * desplazan, sin recorrer el tablero. Dos tableros con la misma firma
+	 * tienen el mismo hash.
+	 * @return hash de las fichas del tablero.
+	 */
+	public long getHash(){
+		return hash;
+	}
+	/**
+	 * Mtodo auxiliar que calcula el hash recorriendo todas las casillas.
+	 * @return hash de las fichas del tablero.
+	 */
+	private long calculaHash(){
+		long h = 0;
+		for (int x = 0; x < ANCHO; x++)
+			for (int y = 0; y < ALTO; y++)
+				if (columnas[x][y] != VACIA)
+					h ^= clave(indice(x, y), columnas[x][y]);
+		return h;
+	}
+	/**
+	 * Clave de Zobrist de una ficha de un color en una casilla.
+	 * En vez de una tabla de números aleatorios, se mezclan los bits
+	 * de (casilla, color) con el finalizador de SplitMix64: no ocupa
+	 * memoria y vale para tableros de cualquier tamaño.
+	 * @param i - casilla (x * ALTO + y).
+	 * @param color - índice de color.
+	 * @return clave de 64 bits.
+	 */
+	private static long clave(int i, int color){
+		long z = (((long) i << 4) | color) + 1;
+		z *= 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
 	/**
 	 * Devuelve el nmero de grupos
-	 * Nmero de grupos. Un grupo es un conjunto de fichas del mismo color 
-	 * que se iran si se hace click en cualquiera de ellas. 
+	 * Nmero de grupos. Un grupo es un conjunto de fichas del mismo color
+	 * que se iran si se hace click en cualquiera de ellas.
 	 * @return - nmero de grupos.
 	 */
 	public int getNGrupos(){
+		grupos();
 		return nGrupos;
 	}
 	/**
@@ -475,11 +1103,11 @@ public class Tablero {
 	}
 	/**
 	 * Devuelve los puntos acumulados.
-	 * Los puntos se calculan mediante el mtodo 
+	 * Los puntos se calculan mediante el mtodo
 	 * puntuacion().
 	 * @return nmero de puntos acumulados hasta el momento.
 	 */
 	public int getPuntos(){
 		return puntos;
 	}
-}
\ No newline at end of file
+}
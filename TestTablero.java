@@ -297,4 +297,877 @@ public class TestTablero extends TestCase {
 		tablero.clic(0,0);
 		assertEquals("---------",tablero.getFirma());
 	}
+	/**
+	 * Prueba que un tablero aleatorio que no es cuadrado se
+	 * puede crear y reproducir a partir de su firma.
+	 */
+	public void testNoCuadrado(){
+		Configuracion configuracion;
+		configuracion = new Configuracion(7,4,5);
+		Tablero tablero = new Tablero(1234L, configuracion);
+		String firma = tablero.getFirma();
+		assertEquals(28, firma.length());
+		Tablero copia = new Tablero(configuracion, firma);
+		assertEquals(firma, copia.getFirma());
+		assertEquals(tablero.getMapaGrupos(), copia.getMapaGrupos());
+		assertEquals(firma, new Tablero(tablero).getFirma());
+	}
+	/**
+	 * Prueba que el etiquetado no es recursivo: un tablero muy grande
+	 * de un solo color forma un nico grupo, y se conocen su tamao y color.
+	 */
+	public void testEtiquetadorSinRecursion(){
+		int ancho = 1000;
+		int alto = 1000;
+		byte[][] columnas = new byte[ancho][alto];
+		for (byte[] columna : columnas)
+			java.util.Arrays.fill(columna, (byte) 2);
+		Etiquetador etiquetador = new Etiquetador(ancho, alto);
+		assertEquals(1, etiquetador.etiqueta(columnas));
+		assertEquals(ancho * alto, etiquetador.getTamano(1));
+		assertEquals(2, etiquetador.getColor(1));
+		assertEquals(1, etiquetador.getGrupo(0));
+	}
+	/**
+	 * Prueba que los tamaos y colores de los grupos que da
+	 * el etiquetado corresponden al mapa de grupos.
+	 */
+	public void testTamanosGrupos(){
+		String firma = "aabbaabbaabbaabbaa";
+		Configuracion configuracion;
+		configuracion = new Configuracion(6, 3,3);
+		Tablero tablero = new Tablero(configuracion, firma);
+		byte[][] columnas = new byte[6][3];
+		for (int y = 0; y < 3; y++)
+			for (int x = 0; x < 6; x++)
+				columnas[x][y] = (byte) (firma.charAt(y * 6 + x) - 'a');
+		Etiquetador etiquetador = new Etiquetador(6, 3);
+		assertEquals(tablero.getNGrupos(), etiquetador.etiqueta(columnas));
+		for (int g = 1; g <= tablero.getNGrupos(); g++) {
+			assertEquals(tablero.getFichasDelGrupo(g).size(), etiquetador.getTamano(g));
+			Coordenadas c = tablero.getFichasDelGrupo(g).get(0);
+			assertEquals(tablero.getIndiceColor(c.getX(), c.getY()), etiquetador.getColor(g));
+		}
+	}
+	/**
+	 * Prueba que, tras cada clic, los grupos que se recalculan slo en las
+	 * columnas afectadas coinciden con los de un tablero nuevo con la misma firma.
+	 */
+	public void testReetiquetado(){
+		Configuracion configuracion;
+		configuracion = new Configuracion(12,9,3);
+		java.util.Random random = new java.util.Random(7);
+		for (int partida = 0; partida < 20; partida++) {
+			Tablero tablero = new Tablero(partida, configuracion);
+			while (tablero.getNGrupos() > 0) {
+				int x = random.nextInt(12);
+				int y = random.nextInt(9);
+				if (tablero.getGrupo(x, y) == 0)
+					continue;
+				tablero.clic(x, y);
+				Tablero nuevo = new Tablero(configuracion, tablero.getFirma());
+				assertEquals(nuevo.getMapaGrupos(), tablero.getMapaGrupos());
+				assertEquals(nuevo.getNGrupos(), tablero.getNGrupos());
+			}
+		}
+	}
+	/**
+	 * Prueba que tras un clic se sabe de qu columna viene cada columna
+	 * y cul es la primera que ha cambiado.
+	 */
+	public void testColumnasMovidas(){
+		String firma = "abcabcabc";
+		Configuracion configuracion;
+		configuracion = new Configuracion(3,3,3);
+		Tablero tablero = new Tablero(configuracion, firma);
+		tablero.clic(1,1);
+		assertEquals("ac-ac-ac-",tablero.getFirma());
+		assertEquals(1, tablero.getPrimeraColumnaCambiada());
+		assertEquals(0, tablero.getColumnaOrigen(0));
+		assertEquals(2, tablero.getColumnaOrigen(1));
+		assertEquals(-1, tablero.getColumnaOrigen(2));
+		tablero.clic(0,0);
+		assertEquals("c--c--c--",tablero.getFirma());
+		assertEquals(0, tablero.getPrimeraColumnaCambiada());
+		assertEquals(1, tablero.getColumnaOrigen(0));
+		assertEquals(-1, tablero.getColumnaOrigen(1));
+		tablero.clic(0,0);
+		assertEquals(0, tablero.getPrimeraColumnaCambiada());
+		assertEquals(-1, tablero.getColumnaOrigen(0));
+	}
+	/**
+	 * Prueba que la firma y el mapa de grupos se guardan
+	 * hasta que el tablero cambia.
+	 */
+	public void testFirmaGuardada(){
+		String firma = "aabbcdabc";
+		Configuracion configuracion;
+		configuracion = new Configuracion(3,3,4);
+		Tablero tablero = new Tablero(configuracion, firma);
+		String mapa = tablero.getMapaGrupos();
+		assertSame(tablero.getFirma(), tablero.getFirma());
+		assertSame(mapa, tablero.getMapaGrupos());
+		tablero.clic(2,2);
+		assertSame(mapa, tablero.getMapaGrupos());
+		tablero.clic(0,0);
+		assertEquals("--bbcdabc",tablero.getFirma());
+		assertEquals("Mapa de grupos:\n0 0 0\n0 0 0\n0 0 0", tablero.getMapaGrupos());
+	}
+	/**
+	 * Prueba que el hash que se actualiza en cada clic coincide con el de
+	 * un tablero nuevo con la misma firma, y que cambia al cambiar el tablero.
+	 */
+	public void testHash(){
+		Configuracion configuracion;
+		configuracion = new Configuracion(10,8,4);
+		java.util.Random random = new java.util.Random(3);
+		for (int partida = 0; partida < 20; partida++) {
+			Tablero tablero = new Tablero(partida, configuracion);
+			while (tablero.getNGrupos() > 0) {
+				int x = random.nextInt(10);
+				int y = random.nextInt(8);
+				if (tablero.getGrupo(x, y) == 0)
+					continue;
+				long antes = tablero.getHash();
+				tablero.clic(x, y);
+				assertTrue(antes != tablero.getHash());
+				assertEquals(new Tablero(configuracion, tablero.getFirma()).getHash(), tablero.getHash());
+			}
+		}
+	}
+	/**
+	 * Prueba que la copia de las casillas sigue el orden de la firma.
+	 */
+	public void testCopiaCasillas(){
+		String firma = "a--abcabcdda";
+		Configuracion configuracion;
+		configuracion = new Configuracion(3,4,4);
+		Tablero tablero = new Tablero(configuracion, firma);
+		int[] destino = new int[12];
+		tablero.copiaCasillas(destino);
+		for (int i = 0; i < firma.length(); i++) {
+			char ch = firma.charAt(i);
+			assertEquals(ch == '-' ? Tablero.VACIA : ch - 'a', destino[i]);
+			assertEquals(destino[i], tablero.getIndiceColor(i % 3, i / 3));
+		}
+	}
+	/**
+	 * Prueba que el ndice de grupos (tamao, color, casillas y grupo mayor)
+	 * corresponde a lo que se ve recorriendo el tablero, tambin tras varios clics.
+	 */
+	public void testIndiceGrupos(){
+		Configuracion configuracion;
+		configuracion = new Configuracion(9,7,3);
+		Tablero tablero = new Tablero(11L, configuracion);
+		while (tablero.getNGrupos() > 0) {
+			int[] tamanos = new int[tablero.getNGrupos() + 1];
+			for (int x = 0; x < 9; x++)
+				for (int y = 0; y < 7; y++)
+					tamanos[tablero.getGrupo(x, y)]++;
+			int mayor = 0;
+			for (int g = 1; g <= tablero.getNGrupos(); g++) {
+				assertEquals(tamanos[g], tablero.getTamanoGrupo(g));
+				for (Coordenadas c : tablero.getFichasDelGrupo(g)) {
+					assertEquals(g, tablero.getGrupo(c));
+					assertEquals(tablero.getColorGrupo(g), tablero.getIndiceColor(c.getX(), c.getY()));
+				}
+				if (mayor == 0 || tamanos[g] > tamanos[mayor])
+					mayor = g;
+			}
+			assertEquals(mayor, tablero.getGrupoMayor());
+			int color = tablero.getColorGrupo(mayor);
+			boolean encontrado = false;
+			for (int g : tablero.getGruposDeColor(color)) {
+				assertEquals(color, tablero.getColorGrupo(g));
+				encontrado |= g == mayor;
+			}
+			assertTrue(encontrado);
+			int representante = tablero.getRepresentanteGrupo(mayor);
+			tablero.clic(representante / 7, representante % 7);
+		}
+	}
+	/**
+	 * Prueba que las jugadas enumeradas son una por grupo y que
+	 * cada una da los puntos anunciados.
+	 */
+	public void testJugadas(){
+		Configuracion configuracion;
+		configuracion = new Configuracion(8,8,3);
+		Tablero tablero = new Tablero(5L, configuracion);
+		int[] jugadas = new int[2 * (8 * 8 / 2 + 1)];
+		int total = 0;
+		while (tablero.getNGrupos() > 0) {
+			int n = tablero.getJugadas(jugadas);
+			assertEquals(tablero.getNGrupos(), n);
+			for (int k = 0; k < n; k++) {
+				int casilla = jugadas[2 * k];
+				Tablero prueba = new Tablero(tablero);
+				prueba.clic(casilla / 8, casilla % 8);
+				assertEquals(k + 1, tablero.getGrupo(casilla / 8, casilla % 8));
+				assertEquals(tablero.getPuntos() + jugadas[2 * k + 1], prueba.getPuntos());
+			}
+			int casilla = jugadas[2 * (n - 1)];
+			total += jugadas[2 * (n - 1) + 1];
+			tablero.clic(casilla / 8, casilla % 8);
+			assertEquals(total, tablero.getPuntos());
+		}
+	}
+	/**
+	 * Prueba que deshacer todas las jugadas deja el tablero como estaba
+	 * en cada paso, y que rehacerlas lo deja como al final.
+	 */
+	public void testDeshacerRehacer(){
+		Configuracion configuracion;
+		configuracion = new Configuracion(9,6,3);
+		java.util.Random random = new java.util.Random(17);
+		for (int partida = 0; partida < 20; partida++) {
+			Tablero tablero = new Tablero(partida, configuracion);
+			java.util.List<String> firmas = new java.util.ArrayList<String>();
+			java.util.List<String> mapas = new java.util.ArrayList<String>();
+			java.util.List<Integer> puntos = new java.util.ArrayList<Integer>();
+			while (tablero.getNGrupos() > 0) {
+				int x = random.nextInt(9);
+				int y = random.nextInt(6);
+				if (tablero.getGrupo(x, y) == 0)
+					continue;
+				firmas.add(tablero.getFirma());
+				mapas.add(tablero.getMapaGrupos());
+				puntos.add(tablero.getPuntos());
+				tablero.clic(x, y);
+			}
+			String firmaFinal = tablero.getFirma();
+			int puntosFinal = tablero.getPuntos();
+			long hashFinal = tablero.getHash();
+			for (int k = firmas.size() - 1; k >= 0; k--) {
+				assertTrue(tablero.deshacer());
+				assertEquals(firmas.get(k), tablero.getFirma());
+				assertEquals(mapas.get(k), tablero.getMapaGrupos());
+				assertEquals((int) puntos.get(k), tablero.getPuntos());
+				assertEquals(k, tablero.getPasos());
+				assertEquals(new Tablero(configuracion, firmas.get(k)).getHash(), tablero.getHash());
+			}
+			assertFalse(tablero.deshacer());
+			while (tablero.rehacer())
+				;
+			assertEquals(firmaFinal, tablero.getFirma());
+			assertEquals(puntosFinal, tablero.getPuntos());
+			assertEquals(hashFinal, tablero.getHash());
+			assertEquals(firmas.size(), tablero.getPasos());
+		}
+	}
+	/**
+	 * Prueba que copiaYClic() da lo mismo que copiar el tablero y hacer
+	 * clic, sin tocar el original ni las columnas que comparte con l.
+	 */
+	public void testCopiaYClic(){
+		Configuracion configuracion;
+		configuracion = new Configuracion(8,7,3);
+		java.util.Random random = new java.util.Random(23);
+		for (int partida = 0; partida < 20; partida++) {
+			Tablero tablero = new Tablero(partida, configuracion);
+			while (tablero.getNGrupos() > 0) {
+				String firma = tablero.getFirma();
+				long hash = tablero.getHash();
+				// todas las copias de la misma posicin, y ninguna toca el original
+				for (int g = 1; g <= tablero.getNGrupos(); g++) {
+					int celda = tablero.getRepresentanteGrupo(g);
+					Tablero hijo = tablero.copiaYClic(celda / 7, celda % 7);
+					Tablero clon = new Tablero(tablero);
+					clon.clic(celda / 7, celda % 7);
+					assertEquals(clon.getFirma(), hijo.getFirma());
+					assertEquals(clon.getMapaGrupos(), hijo.getMapaGrupos());
+					assertEquals(clon.getHash(), hijo.getHash());
+					assertEquals(clon.getPuntos(), hijo.getPuntos());
+					assertEquals(clon.getPasos(), hijo.getPasos());
+					assertFalse(hijo.puedeDeshacer());
+					// la copia de la copia tampoco toca la copia
+					if (hijo.getNGrupos() > 0) {
+						celda = hijo.getRepresentanteGrupo(1);
+						hijo.copiaYClic(celda / 7, celda % 7);
+						assertEquals(clon.getFirma(), firma(hijo));
+					}
+					assertEquals(firma, firma(tablero));
+					assertEquals(hash, tablero.getHash());
+				}
+				int x = random.nextInt(8);
+				int y = random.nextInt(7);
+				tablero.clic(x, y);
+				assertEquals(new Tablero(configuracion, tablero.getFirma()).getHash(), tablero.getHash());
+			}
+		}
+	}
+	/**
+	 * Firma de un tablero leda de sus casillas, sin la que guarda el tablero.
+	 */
+	private static String firma(Tablero tablero){
+		StringBuilder sb = new StringBuilder();
+		for (int y = 0; y < tablero.getAlto(); y++)
+			for (int x = 0; x < tablero.getAncho(); x++) {
+				int idx = tablero.getIndiceColor(x, y);
+				sb.append(idx == Tablero.VACIA ? '-' : (char) ('a' + idx));
+			}
+		return sb.toString();
+	}
+	/**
+	 * Prueba que las jugadas que da la bsqueda en haz suman los puntos
+	 * que dice, que no cambian el tablero de partida y que, con el mismo
+	 * ancho de haz, se encuentra siempre la misma solucin.
+	 */
+	public void testBusquedaHaz(){
+		Configuracion configuracion;
+		configuracion = new Configuracion(10,10,4);
+		for (int semilla = 0; semilla < 5; semilla++) {
+			Tablero tablero = new Tablero(semilla, configuracion);
+			String firma = tablero.getFirma();
+			colorjunction.solver.BusquedaHaz haz = new colorjunction.solver.BusquedaHaz(20, 60000);
+			colorjunction.solver.Solucion solucion = haz.resuelve(tablero);
+			assertEquals(firma, firma(tablero));
+			assertEquals(0, tablero.getPasos());
+			assertTrue(solucion.getPuntos() > 0);
+			solucion.juega(tablero);
+			assertEquals(solucion.getNJugadas(), tablero.getPasos());
+			assertEquals(solucion.getPuntos(), tablero.getPuntos());
+			assertEquals(solucion.toString(), haz.resuelve(new Tablero(semilla, configuracion)).toString());
+		}
+	}
+	/**
+	 * Prueba que la bsqueda repartida entre hilos da el mismo resultado
+	 * con cualquier nmero de hilos, y que sus jugadas suman los puntos que dice.
+	 */
+	public void testBusquedaParalela(){
+		Configuracion configuracion;
+		configuracion = new Configuracion(8,8,4);
+		for (int semilla = 0; semilla < 3; semilla++) {
+			String anterior = null;
+			for (int hilos = 1; hilos <= 4; hilos++) {
+				Tablero tablero = new Tablero(semilla, configuracion);
+				colorjunction.solver.BusquedaParalela busqueda;
+				busqueda = new colorjunction.solver.BusquedaParalela(5, 2, hilos);
+				colorjunction.solver.Solucion solucion = busqueda.resuelve(tablero);
+				busqueda.cierra();
+				if (anterior != null)
+					assertEquals(anterior, solucion.toString());
+				anterior = solucion.toString();
+				solucion.juega(tablero);
+				assertEquals(solucion.getPuntos(), tablero.getPuntos());
+			}
+		}
+	}
+	/**
+	 * Prueba que copiaDe() deja el tablero igual que el original,
+	 * aunque antes tuviera otras fichas, y sin tocar el original.
+	 */
+	public void testCopiaDe(){
+		Configuracion configuracion;
+		configuracion = new Configuracion(7,5,3);
+		Tablero destino = new Tablero(99, configuracion);
+		java.util.Random random = new java.util.Random(5);
+		for (int partida = 0; partida < 10; partida++) {
+			Tablero origen = new Tablero(partida, configuracion);
+			for (int k = 0; k < partida; k++)
+				origen.clic(random.nextInt(7), random.nextInt(5));
+			String firma = firma(origen);
+			destino.copiaDe(origen);
+			assertEquals(firma, firma(destino));
+			assertEquals(origen.getMapaGrupos(), destino.getMapaGrupos());
+			assertEquals(origen.getHash(), destino.getHash());
+			assertEquals(origen.getPuntos(), destino.getPuntos());
+			assertEquals(origen.getPasos(), destino.getPasos());
+			assertFalse(destino.puedeDeshacer());
+			while (destino.getNGrupos() > 0) {
+				int celda = destino.getRepresentanteGrupo(1);
+				destino.clic(celda / 5, celda % 5);
+			}
+			assertEquals(firma, firma(origen));
+		}
+	}
+	/**
+	 * Prueba que la bsqueda de Monte Carlo anidada es reproducible con
+	 * la misma semilla y que sus jugadas suman los puntos que dice.
+	 */
+	public void testMonteCarloAnidado(){
+		Configuracion configuracion;
+		configuracion = new Configuracion(10,10,4);
+		for (int semilla = 0; semilla < 3; semilla++) {
+			Tablero tablero = new Tablero(semilla, configuracion);
+			colorjunction.solver.MonteCarloAnidado busqueda;
+			busqueda = new colorjunction.solver.MonteCarloAnidado(1, semilla, 60000);
+			colorjunction.solver.Solucion solucion = busqueda.resuelve(tablero);
+			assertTrue(busqueda.getPartidas() > 0);
+			assertEquals(solucion.toString(), busqueda.resuelve(tablero).toString());
+			assertEquals(0, tablero.getPasos());
+			solucion.juega(tablero);
+			assertEquals(solucion.getPuntos(), tablero.getPuntos());
+			assertEquals(0, tablero.getNGrupos());
+		}
+	}
+	/**
+	 * Prueba que la bsqueda exacta da lo mismo que probar todas las
+	 * series de jugadas, en tableros pequeos, y que sus jugadas suman
+	 * los puntos que dice.
+	 */
+	public void testBusquedaExacta(){
+		Configuracion configuracion;
+		configuracion = new Configuracion(5,4,3);
+		colorjunction.solver.BusquedaExacta exacta = new colorjunction.solver.BusquedaExacta();
+		for (int semilla = 0; semilla < 20; semilla++) {
+			Tablero tablero = new Tablero(semilla, configuracion);
+			colorjunction.solver.Solucion solucion = exacta.resuelve(tablero);
+			assertEquals(todas(tablero), solucion.getPuntos());
+			solucion.juega(tablero);
+			assertEquals(solucion.getPuntos(), tablero.getPuntos());
+		}
+	}
+	/**
+	 * Mximo de puntos probando todas las series de jugadas.
+	 */
+	private static int todas(Tablero tablero){
+		int mejor = 0;
+		for (int g = 1; g <= tablero.getNGrupos(); g++) {
+			int celda = tablero.getRepresentanteGrupo(g);
+			Tablero hijo = new Tablero(tablero);
+			hijo.clic(celda / tablero.getAlto(), celda % tablero.getAlto());
+			mejor = Math.max(mejor, Tablero.valorJugada(tablero.getTamanoGrupo(g)) + todas(hijo));
+		}
+		return mejor;
+	}
+	/**
+	 * Prueba que reparte() da las mismas fichas que java.util.Random
+	 * con la misma semilla, y que deja el tablero como recin creado.
+	 */
+	public void testReparte(){
+		for (int nColores = 2; nColores <= 10; nColores++) {
+			Configuracion configuracion;
+			configuracion = new Configuracion(7,4,nColores);
+			Tablero tablero = new Tablero(0, configuracion);
+			tablero.clic(0, 0);
+			for (long semilla = -3; semilla < 40; semilla += 7) {
+				java.util.Random random = new java.util.Random(semilla);
+				StringBuilder firma = new StringBuilder();
+				for (int k = 0; k < 28; k++)
+					firma.append((char) ('a' + random.nextInt(nColores)));
+				tablero.reparte(semilla);
+				assertEquals(firma.toString(), tablero.getFirma());
+				Tablero nuevo = new Tablero(semilla, configuracion);
+				assertEquals(nuevo.getMapaGrupos(), tablero.getMapaGrupos());
+				assertEquals(nuevo.getHash(), tablero.getHash());
+				assertEquals(0, tablero.getPuntos());
+				assertEquals(0, tablero.getPasos());
+				assertFalse(tablero.puedeDeshacer());
+			}
+		}
+	}
+	/**
+	 * Prueba que el autojuego juega las mismas partidas que se jugaran a
+	 * mano con el mismo jugador, y que son reproducibles con la misma semilla.
+	 */
+	public void testAutojuego() {
+		Configuracion configuracion = new Configuracion(8, 8, 4);
+		colorjunction.solver.Autojuego autojuego = new colorjunction.solver.Autojuego(new colorjunction.solver.Autojuego.Voraz());
+		autojuego.juega(configuracion, 100, 5);
+		for (int k = 0; k < 5; k++) {
+			// lo mismo que jugando a mano al grupo mayor
+			Tablero tablero = new Tablero(100 + k, configuracion);
+			while (tablero.getNGrupos() > 0) {
+				int celda = tablero.getRepresentanteGrupo(tablero.getGrupoMayor());
+				tablero.clic(celda / 8, celda % 8);
+			}
+			assertEquals(tablero.getPuntos(), autojuego.getPuntos()[k]);
+			assertEquals(tablero.getPasos(), autojuego.getPasos()[k]);
+			assertEquals(64 - tablero.getNFichas(), autojuego.getEliminadas()[k]);
+		}
+		// al azar, las mismas partidas con la misma semilla
+		colorjunction.solver.Autojuego azar = new colorjunction.solver.Autojuego(new colorjunction.solver.Autojuego.AlAzar(7));
+		azar.juega(configuracion, 100, 5);
+		int[] puntos = azar.getPuntos().clone();
+		azar.juega(configuracion, 100, 5);
+		assertTrue(java.util.Arrays.equals(puntos, azar.getPuntos()));
+		// con un buscador, la serie del buscador
+		colorjunction.solver.Autojuego haz = new colorjunction.solver.Autojuego(colorjunction.solver.Autojuego.jugador("haz:20", 0));
+		haz.juega(configuracion, 100, 1);
+		assertEquals(new colorjunction.solver.BusquedaHaz(20, 1000).resuelve(new Tablero(100, configuracion)).getPuntos(), haz.getPuntos()[0]);
+	}
+	/**
+	 * Prueba que en un tablero grande hacer clic sin los grupos al da da
+	 * lo mismo que con ellos, tambin al deshacer, y que los puntos de un
+	 * grupo enorme no se desbordan.
+	 */
+	public void testTableroGrande() {
+		Configuracion configuracion = new Configuracion(300, 300, 3);
+		Tablero perezoso = new Tablero(5, configuracion);
+		Tablero etiquetado = new Tablero(5, configuracion);
+		java.util.Random azar = new java.util.Random(1);
+		for (int k = 0; k < 200; k++) {
+			int x = azar.nextInt(300);
+			int y = azar.nextInt(300);
+			// con los grupos al da, el clic los usa; si no, slo recorre el grupo de la casilla
+			etiquetado.getNGrupos();
+			etiquetado.clic(x, y);
+			perezoso.clic(x, y);
+			assertEquals(etiquetado.getPasos(), perezoso.getPasos());
+			assertEquals(etiquetado.getPuntos(), perezoso.getPuntos());
+			assertEquals(etiquetado.getHash(), perezoso.getHash());
+			assertEquals(etiquetado.getNFichas(), perezoso.getNFichas());
+		}
+		assertEquals(etiquetado.getFirma(), perezoso.getFirma());
+		assertEquals(etiquetado.getMapaGrupos(), perezoso.getMapaGrupos());
+		for (int k = 0; k < 10; k++) {
+			assertTrue(perezoso.deshacer());
+			etiquetado.deshacer();
+			assertEquals(etiquetado.getNFichas(), perezoso.getNFichas());
+			assertEquals(new Tablero(configuracion, perezoso.getFirma()).getNFichas(), perezoso.getNFichas());
+		}
+		assertEquals(etiquetado.getMapaGrupos(), perezoso.getMapaGrupos());
+		// los puntos de un grupo enorme no se desbordan
+		assertEquals(Integer.MAX_VALUE, Tablero.valorJugada(100000));
+		assertEquals(46341 * 46340, Tablero.valorJugada(46341));
+	}
+	/**
+	 * Prueba que un tablero codificado se lee igual, en un tablero nuevo o
+	 * en uno que ya existe, y que se rechazan las versiones, las cabeceras
+	 * y los buffers que no valen.
+	 */
+	public void testCodificacionTablero() {
+		java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(4096);
+		for (int nColores = 2; nColores <= 10; nColores++) {
+			Configuracion configuracion = new Configuracion(7, 5, nColores);
+			Tablero tablero = new Tablero(nColores, configuracion);
+			for (int k = 0; k < 3 && tablero.getNGrupos() > 0; k++) {
+				int celda = tablero.getRepresentanteGrupo(1);
+				tablero.clic(celda / 5, celda % 5);
+			}
+			int bits = nColores < 4 ? 2 : nColores < 8 ? 3 : 4;
+			assertEquals(6 + (35 * bits + 7) / 8, CodificacionTablero.tamano(tablero));
+			byte[] bytes = CodificacionTablero.codifica(tablero);
+			assertEquals(CodificacionTablero.tamano(tablero), bytes.length);
+			Tablero leido = CodificacionTablero.decodifica(java.nio.ByteBuffer.wrap(bytes));
+			assertEquals(tablero.getFirma(), leido.getFirma());
+			assertEquals(tablero.getHash(), leido.getHash());
+			assertEquals(tablero.getMapaGrupos(), leido.getMapaGrupos());
+			assertEquals(tablero.getNFichas(), leido.getNFichas());
+			assertEquals(0, leido.getPuntos());
+			// varios tableros seguidos en un buffer
+			buffer.clear();
+			CodificacionTablero.codifica(tablero, buffer);
+			CodificacionTablero.codifica(new Tablero(1, configuracion), buffer);
+			buffer.flip();
+			Tablero reutilizado = new Tablero(2, configuracion);
+			reutilizado.clic(0, 4);
+			CodificacionTablero.decodifica(buffer, reutilizado);
+			assertEquals(tablero.getFirma(), reutilizado.getFirma());
+			assertEquals(0, reutilizado.getPasos());
+			assertFalse(reutilizado.puedeDeshacer());
+			CodificacionTablero.decodifica(buffer, reutilizado);
+			assertEquals(new Tablero(1, configuracion).getFirma(), reutilizado.getFirma());
+			assertEquals(0, buffer.remaining());
+		}
+		byte[] bytes = CodificacionTablero.codifica(new Tablero(1, new Configuracion(4, 4, 3)));
+		bytes[0] = 2;
+		try {
+			CodificacionTablero.decodifica(java.nio.ByteBuffer.wrap(bytes));
+			fail("versin");
+		} catch (IllegalArgumentException e) {
+		}
+		bytes[0] = 1;
+		try {
+			CodificacionTablero.decodifica(java.nio.ByteBuffer.wrap(bytes, 0, bytes.length - 1));
+			fail("incompleto");
+		} catch (java.nio.BufferUnderflowException e) {
+		}
+		// una casilla no vlida al final no deja el tablero de destino a medias
+		Configuracion cinco = new Configuracion(4, 4, 5);
+		byte[] malas = CodificacionTablero.codifica(new Tablero(3, cinco));
+		malas[malas.length - 1] |= 0x07;
+		Tablero destino = new Tablero(4, cinco);
+		destino.clic(0, 0);
+		String firma = destino.getFirma();
+		long hash = destino.getHash();
+		int pasos = destino.getPasos();
+		int[] casillas = new int[16];
+		for (int i = 0; i < 16; i++)
+			casillas[i] = destino.getIndiceColor(i / 4, i % 4);
+		try {
+			CodificacionTablero.decodifica(java.nio.ByteBuffer.wrap(malas), destino);
+			fail("casilla");
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(firma, destino.getFirma());
+		assertEquals(hash, destino.getHash());
+		assertEquals(pasos, destino.getPasos());
+		for (int i = 0; i < 16; i++)
+			assertEquals(casillas[i], destino.getIndiceColor(i / 4, i % 4));
+		// medidas y colores de la cabecera fuera de los lmites de Configuracion
+		assertEquals(10, CodificacionTablero.MAX_COLORES);
+		assertEquals(2, CodificacionTablero.MIN_COLORES);
+		try {
+			CodificacionTablero.bitsPorCasilla(1);
+			fail("un color");
+		} catch (IllegalArgumentException e) {
+		}
+		int[][] cabeceras = {{5000, 4, 3}, {4, 2, 3}, {4, 4, 12}, {4, 4, 1}, {4, 4, 0}};
+		for (int[] cabecera : cabeceras) {
+			java.nio.ByteBuffer malo = java.nio.ByteBuffer.allocate(64);
+			malo.put((byte) 1).putShort((short) cabecera[0]).putShort((short) cabecera[1]).put((byte) cabecera[2]);
+			malo.rewind();
+			try {
+				CodificacionTablero.decodifica(malo);
+				fail("cabecera " + cabecera[0] + "x" + cabecera[1] + "x" + cabecera[2]);
+			} catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage().startsWith("cabecera"));
+			}
+		}
+	}
+	/**
+	 * Prueba que los tableros de un archivo se leen como se aadieron, tambin
+	 * desde varios hilos y tras reabrirlo con un registro a medias al final.
+	 */
+	public void testArchivoTableros() throws Exception {
+		java.io.File fichero = java.io.File.createTempFile("tableros", ".cjat");
+		fichero.deleteOnExit();
+		final Configuracion configuracion = new Configuracion(6, 5, 4);
+		ArchivoTableros archivo = ArchivoTableros.crea(fichero, configuracion);
+		for (int s = 0; s < 3000; s++)
+			assertEquals(s, archivo.anade(new Tablero(s, configuracion)));
+		// se leen tambin los que an esperan en el buffer
+		assertEquals(3000, archivo.size());
+		assertEquals(new Tablero(2999, configuracion).getFirma(), archivo.getTablero(2999).getFirma());
+		archivo.anade(new Tablero(3000, configuracion));
+		archivo.close();
+		assertEquals(ArchivoTableros.CABECERA + 3001L * archivo.getTamanoRegistro(), fichero.length());
+
+		// un registro a medias al final se ignora y se sobrescribe
+		java.io.RandomAccessFile raf = new java.io.RandomAccessFile(fichero, "rw");
+		raf.setLength(fichero.length() - 1);
+		raf.close();
+		archivo = ArchivoTableros.abre(fichero, true);
+		assertEquals(3000, archivo.size());
+		archivo.anade(new Tablero(7, configuracion));
+		archivo.close();
+
+		final ArchivoTableros lector = ArchivoTableros.abre(fichero, false);
+		assertEquals(3001, lector.size());
+		assertEquals(configuracion.getNColores(), lector.getConfiguracion().getNColores());
+		java.nio.ByteBuffer vista = lector.get(5);
+		assertEquals(lector.getTamanoRegistro(), vista.remaining());
+		assertEquals(new Tablero(7, configuracion).getFirma(), lector.getTablero(3000).getFirma());
+		// varios hilos leyendo a la vez
+		final boolean[] mal = new boolean[1];
+		Thread[] hilos = new Thread[4];
+		for (int h = 0; h < hilos.length; h++) {
+			final int primero = h;
+			hilos[h] = new Thread() {
+				public void run() {
+					try {
+						Tablero tablero = new Tablero(0, configuracion);
+						for (int i = primero; i < 3000; i += 4) {
+							lector.getTablero(i, tablero);
+							if (!tablero.getFirma().equals(new Tablero(i, configuracion).getFirma()))
+								mal[0] = true;
+						}
+					} catch (java.io.IOException e) {
+						mal[0] = true;
+					}
+				}
+			};
+			hilos[h].start();
+		}
+		for (Thread hilo : hilos)
+			hilo.join();
+		assertFalse(mal[0]);
+		try {
+			lector.anade(new Tablero(1, configuracion));
+			fail("slo lectura");
+		} catch (java.io.IOException e) {
+		}
+		try {
+			lector.get(3001);
+			fail("fuera del archivo");
+		} catch (IndexOutOfBoundsException e) {
+		}
+		lector.close();
+	}
+	/**
+	 * Prueba que las partidas de un diario se reproducen con las mismas
+	 * fichas y puntos con que se jugaron, y que una entrada cortada al
+	 * final se ignora al leer.
+	 */
+	public void testDiarioPartidas() throws Exception {
+		java.io.File fichero = java.io.File.createTempFile("partidas", ".cjp");
+		fichero.deleteOnExit();
+		Configuracion[] configuraciones = {new Configuracion(5, 5, 3), new Configuracion(20, 15, 6)};
+		java.util.List<String> firmas = new java.util.ArrayList<String>();
+		java.util.List<Integer> puntos = new java.util.ArrayList<Integer>();
+		DiarioPartidas diario = new DiarioPartidas(fichero);
+		for (int s = 0; s < 200; s++) {
+			Configuracion configuracion = configuraciones[s % 2];
+			long semilla = s * 1000003L - 100;
+			Tablero tablero = new Tablero(semilla, configuracion);
+			int[] jugadas = new int[500];
+			int n = 0;
+			// la ltima partida se queda a medias
+			while (tablero.getNGrupos() > 0 && (s < 199 || n < 3)) {
+				int celda = tablero.getRepresentanteGrupo(tablero.getGrupoMayor());
+				jugadas[n++] = celda;
+				tablero.clic(celda / configuracion.getAlto(), celda % configuracion.getAlto());
+			}
+			diario.apunta(semilla, configuracion, jugadas, n);
+			firmas.add(tablero.getFirma());
+			puntos.add(tablero.getPuntos());
+		}
+		diario.close();
+		// se aade a lo que ya hay
+		diario = new DiarioPartidas(fichero);
+		diario.apunta(7, configuraciones[0], new int[0], 0);
+		diario.close();
+		firmas.add(new Tablero(7, configuraciones[0]).getFirma());
+		puntos.add(0);
+
+		DiarioPartidas.Lector lector = new DiarioPartidas.Lector(fichero);
+		for (int s = 0; s < 201; s++) {
+			assertTrue(lector.siguiente());
+			Tablero tablero = lector.reproduce();
+			assertEquals(firmas.get(s), tablero.getFirma());
+			assertEquals((int) puntos.get(s), tablero.getPuntos());
+		}
+		assertEquals(7, lector.getSemilla());
+		assertFalse(lector.siguiente());
+		lector.close();
+
+		// una entrada cortada al final se ignora
+		java.io.RandomAccessFile raf = new java.io.RandomAccessFile(fichero, "rw");
+		raf.setLength(fichero.length() - 1);
+		raf.close();
+		lector = new DiarioPartidas.Lector(fichero);
+		int n = 0;
+		while (lector.siguiente())
+			n++;
+		lector.close();
+		assertEquals(200, n);
+	}
+
+	/**
+	 * Prueba que la clasificacin retiene los k mejores resultados de cada
+	 * tablero y de cada configuracin, que compacta el fichero y que al
+	 * abrirla de nuevo da lo mismo.
+	 */
+	public void testClasificacion() throws Exception {
+		java.io.File fichero = java.io.File.createTempFile("clasificacion", ".cjc");
+		fichero.deleteOnExit();
+		new java.io.File(fichero.getPath() + ".nuevo").deleteOnExit();
+		Configuracion pequena = new Configuracion(5, 5, 3);
+		Configuracion grande = new Configuracion(10, 10, 5);
+		Clasificacion clasificacion = new Clasificacion(fichero, 3);
+		assertNull(clasificacion.mejor(pequena, 1));
+		assertTrue(clasificacion.mejores(grande).isEmpty());
+		assertTrue(clasificacion.apunta(pequena, 1, 10, 5));
+		assertTrue(clasificacion.apunta(pequena, 1, 30, 5));
+		assertTrue(clasificacion.apunta(pequena, 1, 30, 4));
+		assertTrue(clasificacion.apunta(pequena, 1, 20, 5));
+		// no mejora a ninguno de los tres
+		assertFalse(clasificacion.apunta(pequena, 1, 20, 6));
+		assertEquals(30, clasificacion.mejor(pequena, 1).getPuntos());
+		assertEquals(4, clasificacion.mejor(pequena, 1).getPasos());
+		// de otro tablero, no entra en el suyo
+		assertNull(clasificacion.mejor(grande, 1));
+		assertNull(clasificacion.mejor(pequena, 2));
+		// entra entre los de su tablero, aunque no entre los de su configuracin
+		assertTrue(clasificacion.apunta(pequena, 2, 5, 1));
+		assertEquals(5, clasificacion.mejor(pequena, 2).getPuntos());
+		java.util.List<Clasificacion.Resultado> mejores = clasificacion.mejores(pequena);
+		assertEquals(3, mejores.size());
+		assertEquals(4, mejores.get(0).getPasos());
+		assertEquals(30, mejores.get(1).getPuntos());
+		assertEquals(20, mejores.get(2).getPuntos());
+		// muchos resultados: el fichero se compacta y slo quedan los mejores
+		java.util.Random random = new java.util.Random(0);
+		for (int i = 0; i < 20000; i++)
+			clasificacion.apunta(grande, random.nextInt(100), random.nextInt(100000), 1 + random.nextInt(50));
+		assertTrue(clasificacion.getRegistros() <= Math.max(1024, 2 * clasificacion.getRetenidos()));
+		assertTrue(clasificacion.getRetenidos() <= 3 * 102 + 3);
+		java.util.List<Clasificacion.Resultado> grandes = clasificacion.mejores(grande);
+		int record = clasificacion.mejor(grande, 42).getPuntos();
+		clasificacion.close();
+		assertEquals(fichero.length(), 21 * clasificacion.getRegistros());
+
+		// al abrirla de nuevo, las mismas consultas
+		clasificacion = new Clasificacion(fichero, 3);
+		assertEquals(grandes.toString(), clasificacion.mejores(grande).toString());
+		assertEquals(mejores.toString(), clasificacion.mejores(pequena).toString());
+		assertEquals(record, clasificacion.mejor(grande, 42).getPuntos());
+		assertEquals(5, clasificacion.mejor(pequena, 2).getPuntos());
+		for (int i = 1; i < grandes.size(); i++)
+			assertTrue(grandes.get(i - 1).getPuntos() >= grandes.get(i).getPuntos());
+		clasificacion.close();
+	}
+
+	/**
+	 * Prueba que al abrir una clasificacin cuyo fichero acaba en un
+	 * registro a medias se leen los completos y el resto se sobrescribe.
+	 */
+	public void testClasificacionRegistroAMedias() throws Exception {
+		java.io.File fichero = java.io.File.createTempFile("clasificacion", ".cjc");
+		fichero.deleteOnExit();
+		Configuracion configuracion = new Configuracion(5, 5, 3);
+		Clasificacion clasificacion = new Clasificacion(fichero, 3);
+		clasificacion.apunta(configuracion, 1, 10, 5);
+		clasificacion.close();
+		java.io.FileOutputStream salida = new java.io.FileOutputStream(fichero, true);
+		salida.write(new byte[7]);
+		salida.close();
+
+		clasificacion = new Clasificacion(fichero, 3);
+		assertEquals(1, clasificacion.getRegistros());
+		assertEquals(10, clasificacion.mejor(configuracion, 1).getPuntos());
+		clasificacion.apunta(configuracion, 2, 20, 5);
+		clasificacion.close();
+		assertEquals(2 * 21, fichero.length());
+
+		clasificacion = new Clasificacion(fichero, 3);
+		assertEquals(2, clasificacion.getRegistros());
+		assertEquals(20, clasificacion.mejor(configuracion, 2).getPuntos());
+		clasificacion.close();
+	}
+
+	/**
+	 * Prueba que las partidas que se aaden a un diario que acaba en una
+	 * entrada cortada se pueden leer: la entrada cortada se descarta.
+	 */
+	public void testDiarioPartidasEntradaCortada() throws Exception {
+		java.io.File fichero = java.io.File.createTempFile("partidas", ".cjp");
+		fichero.deleteOnExit();
+		Configuracion configuracion = new Configuracion(5, 5, 3);
+		DiarioPartidas diario = new DiarioPartidas(fichero);
+		diario.apunta(1, configuracion, new int[] {0, 5}, 2);
+		diario.close();
+		long completo = fichero.length();
+		// longitud de 20 bytes y slo 2 de ellos
+		java.io.FileOutputStream salida = new java.io.FileOutputStream(fichero, true);
+		salida.write(new byte[] {20, 4, 6});
+		salida.close();
+
+		diario = new DiarioPartidas(fichero);
+		assertEquals(completo, fichero.length());
+		diario.apunta(2, configuracion, new int[] {3}, 1);
+		diario.apunta(-3, configuracion, new int[0], 0);
+		diario.close();
+
+		DiarioPartidas.Lector lector = new DiarioPartidas.Lector(fichero);
+		long[] semillas = {1, 2, -3};
+		int[] nJugadas = {2, 1, 0};
+		for (int k = 0; k < 3; k++) {
+			assertTrue(lector.siguiente());
+			assertEquals(semillas[k], lector.getSemilla());
+			assertEquals(nJugadas[k], lector.getNJugadas());
+		}
+		assertFalse(lector.siguiente());
+		lector.close();
+
+		// una longitud cortada a medias tambin se descarta
+		salida = new java.io.FileOutputStream(fichero, true);
+		salida.write(new byte[] {(byte) 0x85});
+		salida.close();
+		long antes = fichero.length();
+		new DiarioPartidas(fichero).close();
+		assertEquals(antes - 1, fichero.length());
+	}
 }
\ No newline at end of file
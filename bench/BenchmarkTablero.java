@@ -0,0 +1,171 @@
+package colorjunction;
+
+import colorjunction.conf.Configuracion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Medidas con JMH de las operaciones de Tablero que más se repiten, para
+ * tableros cuadrados de varios tamaños y números de colores.
+ * <p>
+ * Los tamaños 100, 500 y 2000 miden tableros mayores que los del juego
+ * normal, 500 y 2000 ya en el modo de tablero grande (ver
+ * Tablero.CASILLAS_TABLERO_GRANDE); en ellos, clic debe quedar por debajo
+ * de 10 ms.
+ * <p>
+ * La firma y el mapa de grupos se guardan hasta que el tablero cambia, y
+ * clic() cambia el tablero: para medirlos cada vez desde cero, esos
+ * benchmarks preparan antes el tablero con reparte() o copiaDe(), y
+ * reparte y copiaDe se miden también por separado para poder restarlos.
+ * <p>
+ * getNFichas() no se mide: el número de fichas se guarda y sólo se lee.
+ * <p>
+ * Está aparte, en bench/, porque necesita jmh-core y, para compilar,
+ * jmh-generator-annprocess, que el juego no necesita. Se compila contra
+ * las clases del juego ya compiladas. Para comparar un cambio del motor,
+ * se ejecuta antes y después con los mismos parámetros, por ejemplo:
+ * <pre>
+ * javac -cp clases:jmh-core.jar:jmh-generator-annprocess.jar -d bench-clases bench/BenchmarkTablero.java
+ * java -cp clases:bench-clases:... colorjunction.BenchmarkTablero -p tamano=20 -rf csv -rff antes.csv
+ * </pre>
+ *
+ * @author Javier López Medina
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BenchmarkTablero {
+    /**
+     * casillas de ancho y de alto
+     */
+    @Param({"3", "5", "10", "15", "20", "100", "500", "2000"})
+    public int tamano;
+    /**
+     * número de colores
+     */
+    @Param({"2", "3", "5", "8", "10"})
+    public int colores;
+
+    /**
+     * configuración de los tableros
+     */
+    private Configuracion configuracion;
+    /**
+     * tablero de partida, con algún grupo, y su firma
+     */
+    private Tablero tablero;
+    private String firma;
+    /**
+     * tablero en el que se juega, que se copia del de partida
+     */
+    private Tablero trabajo;
+    /**
+     * grupo mayor del tablero de partida, y una casilla suya
+     */
+    private int grupo;
+    private int x;
+    private int y;
+    /**
+     * semilla del siguiente tablero que se crea
+     */
+    private long semilla;
+
+    @Setup
+    public void prepara() {
+        configuracion = new Configuracion(tamano, tamano, colores);
+        // en tableros pequeños con muchos colores puede no haber grupos
+        long s = 0;
+        while ((tablero = new Tablero(s, configuracion)).getNGrupos() == 0)
+            s++;
+        firma = tablero.getFirma();
+        trabajo = new Tablero(tablero);
+        grupo = tablero.getGrupoMayor();
+        int celda = tablero.getRepresentanteGrupo(grupo);
+        x = celda / tamano;
+        y = celda % tamano;
+    }
+
+    @Benchmark
+    public Tablero creaConSemilla() {
+        return new Tablero(semilla++, configuracion);
+    }
+
+    @Benchmark
+    public Tablero creaConFirma() {
+        return new Tablero(configuracion, firma);
+    }
+
+    @Benchmark
+    public Tablero reparte() {
+        trabajo.reparte(semilla++);
+        return trabajo;
+    }
+
+    @Benchmark
+    public Tablero copiaDe() {
+        trabajo.copiaDe(tablero);
+        return trabajo;
+    }
+
+    /**
+     * copiaDe() y un clic en el grupo mayor.
+     */
+    @Benchmark
+    public Tablero clic() {
+        trabajo.copiaDe(tablero);
+        trabajo.clic(x, y);
+        return trabajo;
+    }
+
+    /**
+     * reparte() y la firma, que así no está calculada.
+     */
+    @Benchmark
+    public String getFirma() {
+        trabajo.reparte(semilla++);
+        return trabajo.getFirma();
+    }
+
+    /**
+     * reparte() y el mapa de grupos, que así no está calculado.
+     */
+    @Benchmark
+    public String getMapaGrupos() {
+        trabajo.reparte(semilla++);
+        return trabajo.getMapaGrupos();
+    }
+
+    @Benchmark
+    public List<Coordenadas> getFichasDelGrupo() {
+        return tablero.getFichasDelGrupo(grupo);
+    }
+
+    /**
+     * Ejecuta todos los benchmarks.
+     *
+     * @param args opciones de JMH, por ejemplo -p tamano=20 para fijar un parámetro.
+     * @throws Exception si JMH falla.
+     */
+    public static void main(String[] args) throws Exception {
+        String[] opciones = new String[args.length + 1];
+        opciones[0] = BenchmarkTablero.class.getName();
+        System.arraycopy(args, 0, opciones, 1, args.length);
+        org.openjdk.jmh.Main.main(opciones);
+    }
+}